@@ -0,0 +1,115 @@
+package artdecor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for comparing valuesets and writing concepts
+ *
+ * java -jar target/benchmarks.jar ArtDecorBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class ArtDecorBenchmark {
+    // number of options in a valueset and number of concepts in the hierarchy
+    @Param({"10", "1000"})
+    public int size;
+
+    private ArtDecorValueSet valueSet;
+    private ArtDecorValueSet sameValueSet;
+    private ArtDecorValueSet changedValueSet;
+    private ArtDecorConcept rootConcept;
+    private Writer discardingWriter = new DiscardingWriter();
+
+    @Setup
+    public void setup(){
+        valueSet = createValueSet("");
+        sameValueSet = createValueSet("");
+        changedValueSet = createValueSet(" changed");
+
+        // a root with groups of ten concepts
+        rootConcept = createConcept(0, "");
+        ArtDecorConcept group = rootConcept;
+        for(int i=1; i<size; i++){
+            ArtDecorConcept concept = createConcept(i, group.getConceptId());
+            group.addChild(concept);
+            if(i%10==0){
+                group = concept;
+            }
+        }
+    }
+
+    private ArtDecorValueSet createValueSet(String change){
+        ArtDecorValueSet artDecorValueSet = new ArtDecorValueSet("list", "list", "1", "2017-01-01T00:00:00");
+        // the options are added in the reverse order of their codes, like they may come out of a codelist sheet
+        for(int i=size-1; i>=0; i--){
+            String displayName = "Option "+i+(i==size/2 ? change : "");
+            artDecorValueSet.addConceptOption(String.valueOf(100000+i), "2.16.840.1.113883.6.96", "SNOMED CT", displayName, false);
+            artDecorValueSet.addConceptDesignation("nl", "Optie "+i);
+            artDecorValueSet.addConceptDesignation("en", displayName);
+        }
+        return artDecorValueSet;
+    }
+
+    private ArtDecorConcept createConcept(int i, String parent){
+        ArtDecorConcept artDecorConcept = new ArtDecorConcept("C"+i, "1.2.3.4.2."+i, "2017-01-01T00:00:00", "string", parent, "draft");
+        artDecorConcept.setPropertyMap(new HashMap<>());
+        artDecorConcept.addLanguageConcept("nl", "Concept "+i);
+        artDecorConcept.addLanguageConcept("en", "Concept "+i);
+        return artDecorConcept;
+    }
+
+    /**
+     * compare two valuesets with the same options
+     */
+    @Benchmark
+    public boolean sameValuesIdentical(){
+        return valueSet.sameValues(sameValueSet);
+    }
+
+    /**
+     * compare two valuesets of which one option differs
+     */
+    @Benchmark
+    public boolean sameValuesChanged(){
+        return valueSet.sameValues(changedValueSet);
+    }
+
+    /**
+     * write the concept hierarchy
+     */
+    @Benchmark
+    public Writer writeConceptXML() throws Exception {
+        rootConcept.writeXML(discardingWriter);
+        return discardingWriter;
+    }
+
+    /**
+     * writer which drops everything, so only the cost of generating the xml is measured
+     */
+    private static class DiscardingWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public Writer append(CharSequence csq) {
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
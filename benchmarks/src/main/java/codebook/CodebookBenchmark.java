@@ -0,0 +1,112 @@
+package codebook;
+
+import generator.GeneratorParameters;
+import generator.SyntheticCodebookGenerator;
+import org.openjdk.jmh.annotations.*;
+import settings.RunParameters;
+import utils.ConversionMonitor;
+import utils.Diagnostics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for the read, transform and write steps of a conversion, using synthetic codebooks
+ *
+ * java -jar target/benchmarks.jar CodebookBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class CodebookBenchmark {
+    @Param({"1000", "10000"})
+    public int concepts;
+
+    // number of shared codelists
+    @Param({"10", "100"})
+    public int codeLists;
+
+    // languages separated by a +, as jmh uses commas to separate parameter values on the command line
+    @Param({"nl", "nl+en"})
+    public String languages;
+
+    @Param({"1", "5"})
+    public int versions;
+
+    @Param({"false", "true"})
+    public boolean streamingReader;
+
+    private Path directory;
+    private List<Path> files;
+    private RunParameters runParameters;
+    private CodebookManager codebookManager;
+    private CodebookToArtDecorConvertor transformedConvertor;
+    private File outputFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("codebook-benchmark");
+        List<String> languageList = Arrays.asList(languages.split("\\+"));
+        GeneratorParameters generatorParameters = new GeneratorParameters(directory.toString());
+        generatorParameters.setConcepts(concepts);
+        generatorParameters.setSharedCodeLists(codeLists);
+        generatorParameters.setLanguages(languageList);
+        generatorParameters.setVersions(versions);
+        files = new SyntheticCodebookGenerator(generatorParameters).generate();
+
+        runParameters = new RunParameters(directory.toString(), "1.2.3.4", "benchmark-", "true", "", "draft");
+        for(String language:languageList){
+            runParameters.addLanguageSettings(language, "Project description", "Project name");
+        }
+        runParameters.setDefaultLanguage(languageList.get(0));
+        runParameters.setStreamingReader(streamingReader);
+
+        codebookManager = CodebookManager.readCodebooks(runParameters);
+        transformedConvertor = new CodebookToArtDecorConvertor(codebookManager, runParameters);
+        transformedConvertor.transformCodebooks();
+        outputFile = directory.resolve("output.xml").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * read the last version of the codebook
+     */
+    @Benchmark
+    public Codebook readExcel() throws Exception {
+        return Codebook.readExcel(files.get(files.size()-1), runParameters, new Diagnostics(), new ConversionMonitor());
+    }
+
+    /**
+     * transform all versions, starting with a fresh identifier manager as a run would
+     */
+    @Benchmark
+    public CodebookToArtDecorConvertor transformCodebooks() throws Exception {
+        CodebookToArtDecorConvertor codebookToArtDecorConvertor = new CodebookToArtDecorConvertor(codebookManager, runParameters);
+        codebookToArtDecorConvertor.transformCodebooks();
+        return codebookToArtDecorConvertor;
+    }
+
+    /**
+     * write the xml of all versions
+     */
+    @Benchmark
+    public void writeOutput() throws Exception {
+        transformedConvertor.writeOutput(outputFile.toString());
+    }
+}
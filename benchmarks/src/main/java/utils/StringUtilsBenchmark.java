@@ -0,0 +1,67 @@
+package utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for StringUtils.prepareValueForXML, which is applied to every cell that is read
+ *
+ * java -jar target/benchmarks.jar StringUtilsBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class StringUtilsBenchmark {
+    private static final int numberOfValues = 1024;
+
+    // plain: nothing to replace; markup: characters which have to be escaped; whitespace: runs of (non-breaking) whitespace
+    @Param({"plain", "markup", "whitespace"})
+    public String kind;
+
+    @Param({"16", "256"})
+    public int length;
+
+    private String [] values;
+
+    @Setup
+    public void setup(){
+        Random random = new Random(42);
+        String alphabet = getAlphabet();
+        values = new String[numberOfValues];
+        for(int i=0; i<numberOfValues; i++){
+            StringBuilder stringBuilder = new StringBuilder();
+            for(int j=0; j<length; j++){
+                stringBuilder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            values[i] = stringBuilder.toString();
+        }
+    }
+
+    private String getAlphabet(){
+        switch (kind){
+            case "markup":
+                return "abcdefghijklmnopqrstuvwxyz <>&\"'≥≤";
+            case "whitespace":
+                return "abcdefghijklmnopqrstuvwxyz  \t \n";
+            default:
+                return "abcdefghijklmnopqrstuvwxyz ";
+        }
+    }
+
+    /**
+     * prepare all values
+     */
+    @Benchmark
+    @OperationsPerInvocation(numberOfValues)
+    public void prepareValueForXML(Blackhole blackhole){
+        for(String value:values){
+            blackhole.consume(StringUtils.prepareValueForXML(value));
+        }
+    }
+}
@@ -4,14 +4,19 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import settings.Statics;
+import utils.ContentFingerprint;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
 import java.util.*;
 
 /**
  * Concept in ART-DECOR
  */
-public class ArtDecorConcept {
+public class ArtDecorConcept implements Serializable {
     private static final Logger logger = LogManager.getLogger(ArtDecorConcept.class.getName());
+    private static final long serialVersionUID = 1L;
 
     private String statusCode;
     private String effectiveDate;
@@ -23,6 +28,11 @@ public class ArtDecorConcept {
     private String refEffectiveDate="";
 
     private List<LanguageConcept> languageConceptList = new ArrayList<>();
+    // fingerprint of the values compared in sameValues; created when first needed and reset when these values change
+    private transient ContentFingerprint fingerprint;
+    // the languageConceptList sorted by language, which makes it possible to compare to the languageConceptList of
+    // another concept without changing the order in which the languages are written; created with the fingerprint
+    private transient List<LanguageConcept> sortedLanguageConceptList;
     private Map<String, String> propertyMap;
 
     private String artdecorConceptId;
@@ -77,10 +87,27 @@ public class ArtDecorConcept {
     }
 
     /**
-     * sort the languageConceptList to make it possible to compare to the languageConceptList of another concept
+     * remove the children of this concept, which are no longer needed once the concept has been written
      */
-    private void sortList(){
-        languageConceptList.sort((o1, o2) -> o1.language.compareToIgnoreCase(o2.language));
+    void removeChildren(){
+        children.clear();
+    }
+
+    /**
+     * retrieve the fingerprint of the sorted languageConceptList
+     * @return the fingerprint
+     */
+    private ContentFingerprint getFingerprint(){
+        if(fingerprint==null){
+            sortedLanguageConceptList = new ArrayList<>(languageConceptList);
+            sortedLanguageConceptList.sort((o1, o2) -> o1.language.compareToIgnoreCase(o2.language));
+            ContentFingerprint.Builder builder = ContentFingerprint.builder().add(sortedLanguageConceptList.size());
+            for(LanguageConcept languageConcept:sortedLanguageConceptList){
+                builder.add(languageConcept.language).add(languageConcept.description);
+            }
+            fingerprint = builder.build();
+        }
+        return fingerprint;
     }
 
 
@@ -101,6 +128,19 @@ public class ArtDecorConcept {
         return true;
     }
 
+    /**
+     * whether the data type differs from the one of the concept this concept was compared to in identicalTo, which
+     * is not allowed
+     * @return true if the data type was changed
+     */
+    public boolean dataTypeChanged(){
+        return xmlValueDomainTypeStatus.equalsIgnoreCase("CHANGED");
+    }
+
+    public String getValueDomainType(){
+        return valueDomainType;
+    }
+
     /**
      * compare this artDecorConcept to another artDecorConcept to see whether its valueDomain is the same
      * @param artDecorConcept artDecorConcept to compare to
@@ -136,23 +176,38 @@ public class ArtDecorConcept {
         this.xmlConceptListTypeStatus = xmlConceptListTypeStatus;
     }
 
+    /**
+     * @return the status of the concept compared to the previous version (NEW, SAME or CHANGED)
+     */
+    public String getXMLConceptTypeStatus(){
+        return xmlConceptTypeStatus;
+    }
+
+    /**
+     * @return the status of the conceptlist compared to the previous version (NEW, SAME or CHANGED); empty if the
+     * concept has no conceptlist
+     */
+    public String getXMLConceptListTypeStatus(){
+        return xmlConceptListTypeStatus;
+    }
+
     /**
      * compare the conceptlist of this concept to the conceptlist of another concept
+     * different fingerprints mean the values differ; only when the fingerprints match are the values compared
+     * the type (item or group) is not compared, as it follows from the hierarchy, which does not have to be built
+     * when the concepts are compared
      * @param artDecorConcept concept to compare to
      * @return true/false
      */
     private boolean sameValues(ArtDecorConcept artDecorConcept){
-        if(languageConceptList.size()!=artDecorConcept.languageConceptList.size() ||
-                !type.equalsIgnoreCase(artDecorConcept.type)){
+        if(!getFingerprint().equals(artDecorConcept.getFingerprint()) ||
+                languageConceptList.size()!=artDecorConcept.languageConceptList.size()){
             return false;
         }
 
-        sortList();
-        artDecorConcept.sortList();
-
-        for(int i=0; i<languageConceptList.size(); i++){
-            LanguageConcept languageConcept1 = languageConceptList.get(i);
-            LanguageConcept languageConcept2 = artDecorConcept.languageConceptList.get(i);
+        for(int i=0; i<sortedLanguageConceptList.size(); i++){
+            LanguageConcept languageConcept1 = sortedLanguageConceptList.get(i);
+            LanguageConcept languageConcept2 = artDecorConcept.sortedLanguageConceptList.get(i);
 
             if(!languageConcept1.language.equalsIgnoreCase(languageConcept2.language) ||
                !languageConcept1.description.equalsIgnoreCase(languageConcept2.description)){
@@ -164,6 +219,7 @@ public class ArtDecorConcept {
 
     public void addLanguageConcept(String language, String description){
         languageConceptList.add(new LanguageConcept(language, description));
+        fingerprint = null;
     }
 
     public void setPropertyMap(Map<String, String> propertyMap){
@@ -180,7 +236,34 @@ public class ArtDecorConcept {
 
 
     /**
-     * transform this concept to an xml representation suitable for art-decor
+     * write this concept and all its descendants as an xml representation suitable for art-decor
+     * the hierarchy is walked using an explicit stack instead of recursion, so the depth of the hierarchy is not
+     * limited by the thread's stack size, and each concept is written to the writer exactly once
+     * @param writer the writer to which the xml is written
+     */
+    void writeXML(Writer writer) throws Exception{
+        // each entry holds the children which still have to be written for a concept whose start was written
+        Deque<Iterator<ArtDecorConcept>> stack = new ArrayDeque<>();
+        writeStartXML(writer);
+        stack.push(children.iterator());
+        while(!stack.isEmpty()){
+            Iterator<ArtDecorConcept> childIterator = stack.peek();
+            if(childIterator.hasNext()){
+                // descend into the next child
+                ArtDecorConcept child = childIterator.next();
+                child.writeStartXML(writer);
+                stack.push(child.children.iterator());
+            }
+            else{
+                // all children were written, so close the concept
+                stack.pop();
+                writer.append("</concept>\n");
+            }
+        }
+    }
+
+    /**
+     * write the start of this concept, excluding its children and its closing tag
      * this is quite complicated, due to multiple versions of a dataset existing in one file. This leads to
      * full inheritence, new items, new codelists, reuse of existing codelists, etc.
      *
@@ -194,188 +277,178 @@ public class ArtDecorConcept {
      *
      * If it turns out the XML should be different for one of the options, it should now be relatively easy to change...
      *
-     * @return xml representation of the concept, suitable for art-decor
+     * @param writer the writer to which the xml representation of the concept, suitable for art-decor, is written
      */
-    String toXML() throws Exception{
-        StringBuilder stringBuilder = new StringBuilder();
-
+    private void writeStartXML(Writer writer) throws Exception{
         if(!xmlValueDomainTypeStatus.equalsIgnoreCase("CHANGED")) {
 
-            stringBuilder.append("<concept id=\"" + artdecorConceptId + "\" statusCode=\"" + statusCode + "\" effectiveDate=\"" + effectiveDate + "\" type=\"" + type + "\">\n");
+            writer.append("<concept id=\"").append(artdecorConceptId).append("\" statusCode=\"").append(statusCode).append("\" effectiveDate=\"").append(effectiveDate).append("\" type=\"").append(type).append("\">\n");
 
             if (valueDomainType.equalsIgnoreCase("code")) {
                 if (xmlConceptTypeStatus.equalsIgnoreCase("NEW") && xmlConceptListTypeStatus.equalsIgnoreCase("NEW")) {
                     logger.log(Level.DEBUG, "{}: New Concept, New options", artdecorConceptId);
-                    newConceptNewOptions(stringBuilder);
+                    newConceptNewOptions(writer);
                 } else if (xmlConceptTypeStatus.equalsIgnoreCase("NEW") && xmlConceptListTypeStatus.equalsIgnoreCase("SAME")) {
                     logger.log(Level.DEBUG, "{}: New Concept, Same options", artdecorConceptId);
-                    newConceptSameOptions(stringBuilder);
+                    newConceptSameOptions(writer);
                 } else if (xmlConceptTypeStatus.equalsIgnoreCase("NEW") && xmlConceptListTypeStatus.equalsIgnoreCase("CHANGED")) {
                     logger.log(Level.DEBUG, "{}: New Concept, Changed options", artdecorConceptId);
-                    newConceptChangedOptions(stringBuilder);
+                    newConceptChangedOptions(writer);
                 } else if (xmlConceptTypeStatus.equalsIgnoreCase("SAME") && xmlConceptListTypeStatus.equalsIgnoreCase("NEW")) {
                     logger.log(Level.DEBUG, "{}: Same Concept, New options", artdecorConceptId);
-                    sameConceptNewOptions(stringBuilder);
+                    sameConceptNewOptions(writer);
                 } else if (xmlConceptTypeStatus.equalsIgnoreCase("SAME") && xmlConceptListTypeStatus.equalsIgnoreCase("SAME")) {
                     logger.log(Level.DEBUG, "{}: Same Concept, Same options", artdecorConceptId);
-                    sameConceptSameOptions(stringBuilder);
+                    sameConceptSameOptions(writer);
                 } else if (xmlConceptTypeStatus.equalsIgnoreCase("SAME") && xmlConceptListTypeStatus.equalsIgnoreCase("CHANGED")) {
                     logger.log(Level.DEBUG, "{}: Same Concept, Changed options", artdecorConceptId);
-                    sameConceptChangedOptions(stringBuilder);
+                    sameConceptChangedOptions(writer);
                 } else if (xmlConceptTypeStatus.equalsIgnoreCase("CHANGED") && xmlConceptListTypeStatus.equalsIgnoreCase("NEW")) {
                     logger.log(Level.DEBUG, "{}: Changed Concept, New options", artdecorConceptId);
-                    changedConceptNewOptions(stringBuilder);
+                    changedConceptNewOptions(writer);
                 } else if (xmlConceptTypeStatus.equalsIgnoreCase("CHANGED") && xmlConceptListTypeStatus.equalsIgnoreCase("SAME")) {
                     logger.log(Level.DEBUG, "{}: Changed Concept, Same options", artdecorConceptId);
-                    changedConceptSameOptions(stringBuilder);
+                    changedConceptSameOptions(writer);
                 } else if (xmlConceptTypeStatus.equalsIgnoreCase("CHANGED") && xmlConceptListTypeStatus.equalsIgnoreCase("CHANGED")) {
                     logger.log(Level.DEBUG, "{}: Changed Concept, Changed options", artdecorConceptId);
-                    changedConceptChangedOptions(stringBuilder);
+                    changedConceptChangedOptions(writer);
                 }
 
             }
             else {
                 if (xmlConceptTypeStatus.equalsIgnoreCase("NEW")) {
                     logger.log(Level.DEBUG, "{}: New Concept, No options", artdecorConceptId);
-                    newConceptNoValueDomain(stringBuilder);
+                    newConceptNoValueDomain(writer);
                 } else if (xmlConceptTypeStatus.equalsIgnoreCase("SAME")) {
                     logger.log(Level.DEBUG, "{}: Same Concept, No options", artdecorConceptId);
-                    sameConceptNoValueDomain(stringBuilder);
+                    sameConceptNoValueDomain(writer);
                 } else if (xmlConceptTypeStatus.equalsIgnoreCase("CHANGED")) {
                     logger.log(Level.DEBUG, "{}: Changed Concept, No options", artdecorConceptId);
-                    changedConceptNoValueDomain(stringBuilder);
+                    changedConceptNoValueDomain(writer);
                 }
             }
-
-            // add the children
-            for(ArtDecorConcept artDecorConcept:children){
-                stringBuilder.append(artDecorConcept.toXML());
-            }
-
-            stringBuilder.append("</concept>\n");
         }
         else {
             throw new Exception("Fatal Error: The data type was changed, which is not allowed. Please fix. Violating conceptId="+conceptId);
 //            System.err.println("The type was changed! That's an issue");
         }
-        return stringBuilder.toString();
     }
 
     // new concept and new options
     // create everything
-    private void newConceptNewOptions(StringBuilder stringBuilder){
-        addNewHeader(stringBuilder);
-        addNewValueDomainCodeList(stringBuilder);
+    private void newConceptNewOptions(Writer writer) throws IOException {
+        addNewHeader(writer);
+        addNewValueDomainCodeList(writer);
     }
 
     // a new concept will always refer to a new list, so I'd say this is not possible
-    private void newConceptSameOptions(StringBuilder stringBuilder){
-        addNewHeader(stringBuilder);
-        addNewValueDomainCodeList(stringBuilder);
+    private void newConceptSameOptions(Writer writer) throws IOException {
+        addNewHeader(writer);
+        addNewValueDomainCodeList(writer);
     }
 
     // a new concept will always refer to a new list, so I'd say this is not possible
-    private void newConceptChangedOptions(StringBuilder stringBuilder){
-        stringBuilder.append("NOT ALLOWED!");
+    private void newConceptChangedOptions(Writer writer) throws IOException {
+        writer.append("NOT ALLOWED!");
     }
 
     // someone changed the concept from e.g. a string to a code datatype... not allowed I think? Shouldn't happen, as
     // there's a dataype check before this
-    private void sameConceptNewOptions(StringBuilder stringBuilder){
-        stringBuilder.append("NOT ALLOWED!");
+    private void sameConceptNewOptions(Writer writer) throws IOException {
+        writer.append("NOT ALLOWED!");
     }
 
     // concept stays the same and options stay the same
     // inherit everything
-    private void sameConceptSameOptions(StringBuilder stringBuilder){
-        addRefTag(stringBuilder);
+    private void sameConceptSameOptions(Writer writer) throws IOException {
+        addRefTag(writer);
     }
 
     // concept stayed the some but the options were changed
     // not 100% sure whether we need the SPEC tag, or whether this is only necessary if you change the concept itself
-    private void sameConceptChangedOptions(StringBuilder stringBuilder){
-        addNewHeader(stringBuilder);
-        addSpecTag(stringBuilder);
-        addNewValueDomainCodeList(stringBuilder);
+    private void sameConceptChangedOptions(Writer writer) throws IOException {
+        addNewHeader(writer);
+        addSpecTag(writer);
+        addNewValueDomainCodeList(writer);
     }
 
     // someone changed the concept from e.g. a string to a code datatype... not allowed I think?
-    private void changedConceptNewOptions(StringBuilder stringBuilder){
-        stringBuilder.append("NOT ALLOWED!");
+    private void changedConceptNewOptions(Writer writer) throws IOException {
+        writer.append("NOT ALLOWED!");
     }
 
     // concept was changed but the options stayed the same
     // keep the relationship with the old concept and refer to the old valuedomain
-    private void changedConceptSameOptions(StringBuilder stringBuilder){
-        addNewHeader(stringBuilder);
-        addSpecTag(stringBuilder);
-        addRefValueDomainCodeList(stringBuilder);
+    private void changedConceptSameOptions(Writer writer) throws IOException {
+        addNewHeader(writer);
+        addSpecTag(writer);
+        addRefValueDomainCodeList(writer);
     }
 
     // concept was changed and options were changed
     // keep the relationship with the old concept and create new valuedomain
-    private void changedConceptChangedOptions(StringBuilder stringBuilder){
-        addNewHeader(stringBuilder);
-        addSpecTag(stringBuilder);
-        addNewValueDomainCodeList(stringBuilder);
+    private void changedConceptChangedOptions(Writer writer) throws IOException {
+        addNewHeader(writer);
+        addSpecTag(writer);
+        addNewValueDomainCodeList(writer);
     }
 
-    private void newConceptNoValueDomain(StringBuilder stringBuilder){
-        addNewHeader(stringBuilder);
-        addNewValueDomainNoCodelist(stringBuilder);
+    private void newConceptNoValueDomain(Writer writer) throws IOException {
+        addNewHeader(writer);
+        addNewValueDomainNoCodelist(writer);
     }
 
-    private void sameConceptNoValueDomain(StringBuilder stringBuilder){
-        addRefTag(stringBuilder);
+    private void sameConceptNoValueDomain(Writer writer) throws IOException {
+        addRefTag(writer);
     }
 
     // not sure... probably just attach the domain again, since we can't refer to some existing list?
-    private void changedConceptNoValueDomain(StringBuilder stringBuilder){
-        addNewHeader(stringBuilder);
-        addSpecTag(stringBuilder);
-        addNewValueDomainNoCodelist(stringBuilder);
+    private void changedConceptNoValueDomain(Writer writer) throws IOException {
+        addNewHeader(writer);
+        addSpecTag(writer);
+        addNewValueDomainNoCodelist(writer);
     }
 
-    private void addNewValueDomainNoCodelist(StringBuilder stringBuilder){
-        stringBuilder.append("<valueDomain type=\""+valueDomainType+"\">\n");
-        stringBuilder.append("</valueDomain>\n");
+    private void addNewValueDomainNoCodelist(Writer writer) throws IOException {
+        writer.append("<valueDomain type=\"").append(valueDomainType).append("\">\n");
+        writer.append("</valueDomain>\n");
     }
 
-    private void addRefTag(StringBuilder stringBuilder){
-        stringBuilder.append("<inherit ref=\"" + artdecorConceptId + "\" effectiveDate=\"" + refEffectiveDate + "\"/>\n");
+    private void addRefTag(Writer writer) throws IOException {
+        writer.append("<inherit ref=\"").append(artdecorConceptId).append("\" effectiveDate=\"").append(refEffectiveDate).append("\"/>\n");
     }
 
 
-    private void addNewHeader(StringBuilder stringBuilder){
+    private void addNewHeader(Writer writer) throws IOException {
         // name and desc both use the description since we don't have anything better at the moment
         for(LanguageConcept languageConcept:languageConceptList){
-            stringBuilder.append("<name language=\""+ languageConcept.language+"\">"+languageConcept.description+"</name>\n");
+            writer.append("<name language=\"").append(languageConcept.language).append("\">").append(languageConcept.description).append("</name>\n");
         }
 
         for(LanguageConcept languageConcept:languageConceptList){
-            stringBuilder.append("<desc language=\""+ languageConcept.language+"\">"+languageConcept.description+"</desc>\n");
+            writer.append("<desc language=\"").append(languageConcept.language).append("\">").append(languageConcept.description).append("</desc>\n");
         }
 
         // add properties
-        for(Map.Entry property:propertyMap.entrySet()){
-            stringBuilder.append("<property name=\""+property.getKey()+"\">"+property.getValue()+"</property>\n");
+        for(Map.Entry<String, String> property:propertyMap.entrySet()){
+            writer.append("<property name=\"").append(property.getKey()).append("\">").append(property.getValue()).append("</property>\n");
         }
     }
 
-    private void addNewValueDomainCodeList(StringBuilder stringBuilder){
-        stringBuilder.append("<valueDomain type=\""+valueDomainType+"\">\n");
-        stringBuilder.append("<conceptList id=\""+artdecorConceptListId+"\"/>\n");
-        stringBuilder.append("</valueDomain>\n");
+    private void addNewValueDomainCodeList(Writer writer) throws IOException {
+        writer.append("<valueDomain type=\"").append(valueDomainType).append("\">\n");
+        writer.append("<conceptList id=\"").append(artdecorConceptListId).append("\"/>\n");
+        writer.append("</valueDomain>\n");
     }
 
-    private void addRefValueDomainCodeList(StringBuilder stringBuilder){
-        stringBuilder.append("<valueDomain type=\""+valueDomainType+"\">\n");
-        stringBuilder.append("<conceptList ref=\""+artdecorConceptListId+"\"/>\n");
-        stringBuilder.append("</valueDomain>\n");
+    private void addRefValueDomainCodeList(Writer writer) throws IOException {
+        writer.append("<valueDomain type=\"").append(valueDomainType).append("\">\n");
+        writer.append("<conceptList ref=\"").append(artdecorConceptListId).append("\"/>\n");
+        writer.append("</valueDomain>\n");
     }
 
-    private void addSpecTag(StringBuilder stringBuilder){
-        stringBuilder.append("<relationship type=\"SPEC\" ref=\""+artdecorConceptId+"\" flexibility=\""+refEffectiveDate+"\"/>\n");
+    private void addSpecTag(Writer writer) throws IOException {
+        writer.append("<relationship type=\"SPEC\" ref=\"").append(artdecorConceptId).append("\" flexibility=\"").append(refEffectiveDate).append("\"/>\n");
     }
 
     public String getEffectiveDate() {
@@ -388,7 +461,8 @@ public class ArtDecorConcept {
 
 
 
-    private class LanguageConcept{
+    private class LanguageConcept implements Serializable {
+        private static final long serialVersionUID = 1L;
         private String language;
         private String description;
 
@@ -2,6 +2,7 @@ package artdecor;
 
 import settings.Statics;
 
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -50,24 +51,33 @@ public class ArtDecorDataset {
         }
     }
 
-    public String toXML() throws Exception{
+    /**
+     * release the hierarchy of the concepts after the dataset was written. The concepts themselves may still be
+     * used to compare the next versions against, but they should not keep the concepts of this version alive
+     */
+    public void disconnectConcepts(){
+        for(ArtDecorConcept artDecorConcept:artDecorConcepMap.values()){
+            artDecorConcept.removeChildren();
+        }
+        topArtDecorConceptList.clear();
+    }
+
+    public void writeXML(Writer writer) throws Exception{
         try {
-            StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append("<dataset id=\"" + artdecorDatasetId + "\" effectiveDate=\"" + effectiveDate + "\" statusCode=\"" + statusCode + "\" versionLabel=\"" + versionLabel + "\">\n");
+            writer.append("<dataset id=\"").append(artdecorDatasetId).append("\" effectiveDate=\"").append(effectiveDate).append("\" statusCode=\"").append(statusCode).append("\" versionLabel=\"").append(String.valueOf(versionLabel)).append("\">\n");
             for (LanguageDataset languageDataset : languageDatasetList) {
-                stringBuilder.append("<name language=\"" + languageDataset.language + "\">" + languageDataset.datasetName + "</name>\n");
+                writer.append("<name language=\"").append(languageDataset.language).append("\">").append(languageDataset.datasetName).append("</name>\n");
             }
 
             for (LanguageDataset languageDataset : languageDatasetList) {
-                stringBuilder.append("<desc language=\"" + languageDataset.language + "\">" + languageDataset.datasetDescription + "</desc>\n");
+                writer.append("<desc language=\"").append(languageDataset.language).append("\">").append(languageDataset.datasetDescription).append("</desc>\n");
             }
 
             for (ArtDecorConcept artDecorConcept : topArtDecorConceptList) {
-                stringBuilder.append(artDecorConcept.toXML());
+                artDecorConcept.writeXML(writer);
             }
 
-            stringBuilder.append("</dataset>\n");
-            return stringBuilder.toString();
+            writer.append("</dataset>\n");
         } catch(Exception e){
             throw new Exception("codebook version: "+versionLabel+"; "+e.getMessage());
         }
@@ -3,6 +3,8 @@ package artdecor;
 import settings.RunParameters;
 import settings.Statics;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Set;
 
 /**
@@ -15,28 +17,25 @@ public class ArtDecorProject {
         this.runParameters = runParameters;
     }
 
-    public String toXML(){
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("<project id=\""+ runParameters.getProjectId()+"\" prefix=\""+ runParameters.getProjectPrefix()+"\" experimental=\""+ runParameters.getExperimental()+"\" defaultLanguage=\""+ Statics.getArtDecorLanguage(runParameters.getDefaultLanguage())+"\">\n");
+    public void writeXML(Writer writer) throws IOException {
+        writer.append("<project id=\"").append(runParameters.getProjectId()).append("\" prefix=\"").append(runParameters.getProjectPrefix()).append("\" experimental=\"").append(runParameters.getExperimental()).append("\" defaultLanguage=\"").append(Statics.getArtDecorLanguage(runParameters.getDefaultLanguage())).append("\">\n");
         Set<String> languages = runParameters.getLanguages();
 
         for(String language:languages){
             String languageArtDecor = Statics.getArtDecorLanguage(language);
-            stringBuilder.append("<name language=\""+ languageArtDecor+"\">"+ runParameters.getProjectName(language)+"</name>\n");
+            writer.append("<name language=\"").append(languageArtDecor).append("\">").append(runParameters.getProjectName(language)).append("</name>\n");
         }
 
         for(String language:languages){
             String languageArtDecor = Statics.getArtDecorLanguage(language);
-            stringBuilder.append("<desc language=\""+ languageArtDecor+"\">"+ runParameters.getProjectDescription(language)+"</desc>\n");
+            writer.append("<desc language=\"").append(languageArtDecor).append("\">").append(runParameters.getProjectDescription(language)).append("</desc>\n");
         }
 
         // copyright by and years should probably become parameters as well...
-        stringBuilder.append(
-                "<copyright by=\"NKI and VUmc \" years=\"2016 2017 2018 2019\" type=\"author\"/>\n" +
-                        runParameters.getAuthorsStringFormatted()+"\n"+
-                        "<reference url=\"http://decor.nictiz.nl/pub/"+ runParameters.getProjectReference()+"/\"/>\n" +
-                        "<defaultElementNamespace ns=\"hl7:\"/>\n" +
-                        "</project>\n");
-        return stringBuilder.toString();
+        writer.append("<copyright by=\"NKI and VUmc \" years=\"2016 2017 2018 2019\" type=\"author\"/>\n")
+                .append(runParameters.getAuthorsStringFormatted()).append("\n")
+                .append("<reference url=\"http://decor.nictiz.nl/pub/").append(runParameters.getProjectReference()).append("/\"/>\n")
+                .append("<defaultElementNamespace ns=\"hl7:\"/>\n")
+                .append("</project>\n");
     }
 }
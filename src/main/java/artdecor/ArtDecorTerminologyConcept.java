@@ -1,9 +1,14 @@
 package artdecor;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+
 /**
  * Representation of an Art-Decor Concept for the Terminology
  */
-public class ArtDecorTerminologyConcept {
+public class ArtDecorTerminologyConcept implements Serializable {
+    private static final long serialVersionUID = 1L;
     private String artdecorConceptId;
     private String conceptFlexibility;
     private String code;
@@ -23,7 +28,7 @@ public class ArtDecorTerminologyConcept {
         this.effectiveDate = effectiveDate;
     }
 
-    public String toXML(){
-        return "<terminologyAssociation conceptId=\""+ artdecorConceptId +"\" conceptFlexibility=\""+conceptFlexibility+"\" code=\""+code+"\" codeSystem=\""+ codeSystemId+"\" codeSystemName=\""+codeSystemName+"\" displayName=\""+displayName+"\" effectiveDate=\""+effectiveDate+"\"/>\n";
+    public void writeXML(Writer writer) throws IOException {
+        writer.append("<terminologyAssociation conceptId=\"").append(artdecorConceptId).append("\" conceptFlexibility=\"").append(conceptFlexibility).append("\" code=\"").append(code).append("\" codeSystem=\"").append(codeSystemId).append("\" codeSystemName=\"").append(codeSystemName).append("\" displayName=\"").append(displayName).append("\" effectiveDate=\"").append(effectiveDate).append("\"/>\n");
     }
 }
@@ -1,9 +1,14 @@
 package artdecor;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+
 /**
  * Representation of an Art-Decor Value Set for the Terminology
  */
-public class ArtDecorTerminologyValueSet {
+public class ArtDecorTerminologyValueSet implements Serializable {
+    private static final long serialVersionUID = 1L;
     private String artdecorConceptListId;
     private String artdecorValueSetId;
     private String flexibilityDate;
@@ -16,7 +21,7 @@ public class ArtDecorTerminologyValueSet {
         this.effectiveDate = effectiveDate;
     }
 
-    public String toXML(){
-        return "<terminologyAssociation conceptId=\""+artdecorConceptListId+"\" valueSet=\""+artdecorValueSetId+"\" flexibility=\""+flexibilityDate+"\" effectiveDate=\""+effectiveDate+"\"/>\n";
+    public void writeXML(Writer writer) throws IOException {
+        writer.append("<terminologyAssociation conceptId=\"").append(artdecorConceptListId).append("\" valueSet=\"").append(artdecorValueSetId).append("\" flexibility=\"").append(flexibilityDate).append("\" effectiveDate=\"").append(effectiveDate).append("\"/>\n");
     }
 }
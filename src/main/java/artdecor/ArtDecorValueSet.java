@@ -1,22 +1,38 @@
 package artdecor;
 
 import settings.Statics;
+import utils.ContentFingerprint;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
 import java.util.*;
 
 /**
  * Representation of an Art-Decor Valueset
  */
-public class ArtDecorValueSet {
+public class ArtDecorValueSet implements Serializable {
+    private static final long serialVersionUID = 1L;
     private String name;
     private String displayName;
     private String versionLabel;
     private String effectiveDate;
     private String statusCode = "draft";
 
+    // the options in the order of the codelist
     private List<ConceptOption> conceptOptionList = new ArrayList<>();
     private List<ConceptOption> exceptionConceptOptionList = new ArrayList<>();
     private List<LanguageValueSet> languageValueSetList = new ArrayList<>();
+    // the option to which designations are added
+    private ConceptOption lastConceptOption;
+    // fingerprint of the values compared in sameValues; created when first needed and reset when these values change
+    private transient ContentFingerprint fingerprint;
+    // the conceptOptionList sorted by code, which makes it possible to compare to the conceptOptionList of another
+    // valueset without changing the order of the conceptOptionList; created when first needed
+    private transient List<ConceptOption> sortedConceptOptionList;
+    // set once the valueset is compared to a valueset with as many options, after which its options are written
+    // sorted by code; the options of a valueset which is never compared are written in the order of its codelist
+    private boolean writeSorted = false;
 
 
     private String artdecorValueSetId;
@@ -44,18 +60,19 @@ public class ArtDecorValueSet {
         }
         else {
             conceptOptionList.add(conceptOption );
+            fingerprint = null;
+            sortedConceptOptionList = null;
         }
+        lastConceptOption = conceptOption;
     }
 
-    public void addConceptDesignation(String language, String displayName, boolean addToExceptionList){
-        ConceptOption conceptOption;
-        if(addToExceptionList){
-            conceptOption = exceptionConceptOptionList.get(exceptionConceptOptionList.size()-1);
-        }
-        else {
-            conceptOption = conceptOptionList.get(conceptOptionList.size()-1);
-        }
-        conceptOption.addDesignation(language, displayName);
+    /**
+     * add a designation to the option which was added last
+     * @param language    language of the designation
+     * @param displayName name of the option in the language
+     */
+    public void addConceptDesignation(String language, String displayName){
+        lastConceptOption.addDesignation(language, displayName);
     }
 
     public void setStatusCode(String statusCode){
@@ -63,21 +80,55 @@ public class ArtDecorValueSet {
     }
 
 
-    private void sortList(){
-        conceptOptionList.sort((o1, o2) -> o1.conceptCode.compareToIgnoreCase(o2.conceptCode));
+    /**
+     * retrieve a copy of the conceptOptionList sorted by code, to make it possible to compare to the
+     * conceptOptionList of another valueset
+     * @return the sorted options
+     */
+    private List<ConceptOption> getSortedConceptOptionList(){
+        if(sortedConceptOptionList==null){
+            sortedConceptOptionList = new ArrayList<>(conceptOptionList);
+            sortedConceptOptionList.sort((o1, o2) -> o1.conceptCode.compareToIgnoreCase(o2.conceptCode));
+        }
+        return sortedConceptOptionList;
     }
 
+    /**
+     * retrieve the fingerprint of the sorted conceptOptionList
+     * @return the fingerprint
+     */
+    private ContentFingerprint getFingerprint(){
+        if(fingerprint==null){
+            List<ConceptOption> sortedOptions = getSortedConceptOptionList();
+            ContentFingerprint.Builder builder = ContentFingerprint.builder().add(sortedOptions.size());
+            for(ConceptOption conceptOption:sortedOptions){
+                builder.add(conceptOption.conceptCode).add(conceptOption.conceptCodeSystem).add(conceptOption.displayName);
+            }
+            fingerprint = builder.build();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * compare the options of this valueset to the options of another valueset
+     * different fingerprints mean the options differ; only when the fingerprints match are the options compared
+     * once both valuesets have as many options, both are written with their options sorted by code
+     * @param otherValueSet valueset to compare to
+     * @return true/false
+     */
     public boolean sameValues(ArtDecorValueSet otherValueSet){
         if(conceptOptionList.size()!=otherValueSet.conceptOptionList.size())
             return false;
+        writeSorted = true;
+        otherValueSet.writeSorted = true;
+        if(!getFingerprint().equals(otherValueSet.getFingerprint()))
+            return false;
 
-        // sort the lists by code
-        sortList();
-        otherValueSet.sortList();
-
-        for(int i=0; i<conceptOptionList.size(); i++){
-            ConceptOption conceptOption1 = conceptOptionList.get(i);
-            ConceptOption conceptOption2 = otherValueSet.conceptOptionList.get(i);
+        List<ConceptOption> sortedOptions = getSortedConceptOptionList();
+        List<ConceptOption> otherSortedOptions = otherValueSet.getSortedConceptOptionList();
+        for(int i=0; i<sortedOptions.size(); i++){
+            ConceptOption conceptOption1 = sortedOptions.get(i);
+            ConceptOption conceptOption2 = otherSortedOptions.get(i);
             if(!conceptOption1.conceptCode.equalsIgnoreCase(conceptOption2.conceptCode) ||
                !conceptOption1.conceptCodeSystem.equalsIgnoreCase(conceptOption2.conceptCodeSystem) ||
                !conceptOption1.displayName.equalsIgnoreCase(conceptOption2.displayName)){
@@ -87,28 +138,24 @@ public class ArtDecorValueSet {
         return true;
     }
 
-    public String toXML(){
-        StringBuilder stringBuilder = new StringBuilder();
-
-        stringBuilder.append("<valueSet name=\""+name+"_Opts\" displayName=\""+displayName+" Options\" versionLabel=\""+versionLabel+"\" id=\""+artdecorValueSetId+"\" effectiveDate=\""+effectiveDate+"\" statusCode=\""+statusCode+"\">\n");
+    public void writeXML(Writer writer) throws IOException {
+        writer.append("<valueSet name=\"").append(name).append("_Opts\" displayName=\"").append(displayName).append(" Options\" versionLabel=\"").append(versionLabel).append("\" id=\"").append(artdecorValueSetId).append("\" effectiveDate=\"").append(effectiveDate).append("\" statusCode=\"").append(statusCode).append("\">\n");
 
         for(LanguageValueSet languageValueSet:languageValueSetList){
-            stringBuilder.append("<desc language=\""+languageValueSet.language+"\">\n");
-            stringBuilder.append(languageValueSet.description+"\n");
-            stringBuilder.append("</desc>\n");
+            writer.append("<desc language=\"").append(languageValueSet.language).append("\">\n");
+            writer.append(languageValueSet.description).append("\n");
+            writer.append("</desc>\n");
         }
 
-        stringBuilder.append("<conceptList>\n");
-        for(ConceptOption conceptOption:conceptOptionList){
-            stringBuilder.append(conceptOption.toXML());
+        writer.append("<conceptList>\n");
+        for(ConceptOption conceptOption:writeSorted ? getSortedConceptOptionList() : conceptOptionList){
+            conceptOption.writeXML(writer);
         }
         for(ConceptOption conceptOption:exceptionConceptOptionList){
-            stringBuilder.append(conceptOption.toXMLException());
+            conceptOption.writeXMLException(writer);
         }
-        stringBuilder.append("</conceptList>\n");
-        stringBuilder.append("</valueSet>\n");
-
-        return stringBuilder.toString();
+        writer.append("</conceptList>\n");
+        writer.append("</valueSet>\n");
     }
 
     public String getArtDecorValueSetId() {
@@ -126,7 +173,8 @@ public class ArtDecorValueSet {
 //    }
 
 
-    private class ConceptOption {
+    private class ConceptOption implements Serializable {
+        private static final long serialVersionUID = 1L;
         private String conceptCode;
         private String conceptCodeSystem;
         private String conceptCodeSystemName;
@@ -148,28 +196,25 @@ public class ArtDecorValueSet {
             designationList.add(new Designation(language, displayName));
         }
 
-        private String toXML(){
-            StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append("<concept code=\""+conceptCode+"\" codeSystem=\""+ conceptCodeSystem+"\" codeSystemName=\""+conceptCodeSystemName+"\" displayName=\""+displayName+"\" level=\""+level+"\" type=\""+type+"\">\n");
+        private void writeXML(Writer writer) throws IOException {
+            writer.append("<concept code=\"").append(conceptCode).append("\" codeSystem=\"").append(conceptCodeSystem).append("\" codeSystemName=\"").append(conceptCodeSystemName).append("\" displayName=\"").append(displayName).append("\" level=\"").append(level).append("\" type=\"").append(type).append("\">\n");
             for(Designation designation:designationList){
-                stringBuilder.append(designation.toXML());
+                designation.writeXML(writer);
             }
-            stringBuilder.append("</concept>\n");
-            return stringBuilder.toString();
+            writer.append("</concept>\n");
         }
 
-        private String toXMLException(){
-            StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append("<exception code=\""+conceptCode+"\" codeSystem=\""+ conceptCodeSystem+"\" codeSystemName=\""+conceptCodeSystemName+"\" displayName=\""+displayName+"\" level=\""+level+"\" type=\""+type+"\">\n");
+        private void writeXMLException(Writer writer) throws IOException {
+            writer.append("<exception code=\"").append(conceptCode).append("\" codeSystem=\"").append(conceptCodeSystem).append("\" codeSystemName=\"").append(conceptCodeSystemName).append("\" displayName=\"").append(displayName).append("\" level=\"").append(level).append("\" type=\"").append(type).append("\">\n");
             for(Designation designation:designationList){
-                stringBuilder.append(designation.toXML());
+                designation.writeXML(writer);
             }
-            stringBuilder.append("</exception>\n");
-            return stringBuilder.toString();
+            writer.append("</exception>\n");
         }
     }
 
-    private class LanguageValueSet{
+    private class LanguageValueSet implements Serializable {
+        private static final long serialVersionUID = 1L;
         private String language;
         private String description;
 
@@ -179,7 +224,8 @@ public class ArtDecorValueSet {
         }
     }
 
-    private class Designation {
+    private class Designation implements Serializable {
+        private static final long serialVersionUID = 1L;
         private String language;
         private String type = "preferred";
         private String displayName;
@@ -189,8 +235,8 @@ public class ArtDecorValueSet {
             this.language = language;
         }
 
-        private String toXML(){
-            return "<designation language=\""+ Statics.getArtDecorLanguage(language)+"\" type=\""+type+"\" displayName=\""+displayName+"\"/>\n";
+        private void writeXML(Writer writer) throws IOException {
+            writer.append("<designation language=\"").append(Statics.getArtDecorLanguage(language)).append("\" type=\"").append(type).append("\" displayName=\"").append(displayName).append("\"/>\n");
         }
     }
 
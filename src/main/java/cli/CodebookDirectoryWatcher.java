@@ -0,0 +1,86 @@
+package cli;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a codebook directory and runs the conversion whenever a codebook is created, saved or removed. Saving a
+ * workbook usually results in a burst of events, so the conversion starts once no events arrived for a while.
+ * Excel's lock files (~$name.xlsx) and the files written by the conversion itself are ignored
+ */
+class CodebookDirectoryWatcher {
+    private static final Logger logger = LogManager.getLogger(CodebookDirectoryWatcher.class.getName());
+
+    private Path directory;
+    private int debounceMillis;
+
+    /**
+     * create a watcher for a directory
+     * @param directory         the codebook directory
+     * @param debounceMillis    time without events after which the conversion starts
+     */
+    CodebookDirectoryWatcher(Path directory, int debounceMillis){
+        this.directory = directory;
+        this.debounceMillis = Math.max(0, debounceMillis);
+    }
+
+    /**
+     * watch the directory until the thread is interrupted or the directory can no longer be watched
+     * @param conversion    the conversion to run when the codebooks changed
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    void watch(Runnable conversion) throws IOException, InterruptedException {
+        try (WatchService watchService = directory.getFileSystem().newWatchService()) {
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            logger.log(Level.INFO, "Watching {} for changes...", directory);
+            while(true){
+                boolean changed = handleEvents(watchService.take());
+                // wait for the burst of events to end
+                WatchKey watchKey;
+                while((watchKey = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS))!=null){
+                    changed |= handleEvents(watchKey);
+                }
+                if(changed){
+                    conversion.run();
+                    logger.log(Level.INFO, "Watching {} for changes...", directory);
+                }
+            }
+        }
+    }
+
+    /**
+     * check whether the events of a key concern a codebook
+     * @param watchKey    the key
+     * @return true if a codebook changed
+     * @throws IOException    the directory can no longer be watched
+     */
+    private boolean handleEvents(WatchKey watchKey) throws IOException {
+        boolean changed = false;
+        for(WatchEvent<?> watchEvent:watchKey.pollEvents()){
+            // when events were lost, any codebook may have changed
+            if(watchEvent.kind()==OVERFLOW){
+                changed = true;
+            }
+            else {
+                String fileName = ((Path) watchEvent.context()).getFileName().toString();
+                // the same files readCodebooks uses
+                if(fileName.endsWith(".xlsx") && !fileName.startsWith("~")){
+                    logger.log(Level.DEBUG, "{}: {}", watchEvent.kind().name(), fileName);
+                    changed = true;
+                }
+            }
+        }
+        if(!watchKey.reset()){
+            throw new IOException("the directory "+directory+" is no longer accessible");
+        }
+        return changed;
+    }
+}
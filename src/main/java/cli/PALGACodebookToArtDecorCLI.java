@@ -0,0 +1,319 @@
+package cli;
+
+import codebook.CodebookManager;
+import codebook.CodebookToArtDecorConvertor;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import settings.RunParameters;
+import settings.Statics;
+import utils.RunStatistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Headless entry point which runs the conversion without the GUI, e.g. on a build server. No javafx classes are
+ * loaded, so no display is required. The parameters are read from a properties file and/or the command line:
+ *
+ * java -cp PALGACodebookToArtDecor.jar cli.PALGACodebookToArtDecorCLI [--config=run.properties] [--key=value ...]
+ *
+ * Values given on the command line override the values in the properties file.
+ * The program exits with 0 on success, 1 when the conversion fails and 2 when the parameters are not correct.
+ * In watch mode the program keeps converting the codebooks whenever they change, until it is stopped
+ */
+public class PALGACodebookToArtDecorCLI {
+    static{
+        // the default log4j2.xml logs to the GUI's text area, which requires javafx
+        if(System.getProperty("log4j.configurationFile")==null) {
+            System.setProperty("log4j.configurationFile", "log4j2-cli.xml");
+        }
+    }
+    private static final Logger logger = LogManager.getLogger(PALGACodebookToArtDecorCLI.class.getName());
+
+    static final int exitOK = 0;
+    static final int exitConversionError = 1;
+    static final int exitParameterError = 2;
+
+    public static void main(String ... args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * runs the conversion, once or, in watch mode, whenever a codebook changes
+     * @param args the command line arguments
+     * @return the exit code
+     */
+    static int run(String ... args){
+        RunParameters runParameters;
+        boolean watch;
+        int debounceMillis;
+        try {
+            Properties properties = readParameters(args);
+            runParameters = createRunParameters(properties);
+            watch = Boolean.parseBoolean(properties.getProperty("watch", "false"));
+            debounceMillis = properties.containsKey("watchDebounceMillis") ? getInt(properties, "watchDebounceMillis") : 500;
+        } catch (IllegalArgumentException | IOException e){
+            logger.log(Level.ERROR, "Incorrect parameters: {}", e.getMessage());
+            System.err.println(getUsageText());
+            return exitParameterError;
+        }
+
+        if(!watch){
+            return convert(runParameters);
+        }
+
+        // when watching, only the versions from the first changed one on are converted again, which requires
+        // snapshots; the cache prevents parsing the versions after it which did not change
+        Path workDirectory = Paths.get(runParameters.getCodebookDirectory(), ".conversion");
+        if(!runParameters.useSnapshots()){
+            runParameters.setSnapshotDirectory(workDirectory.resolve("snapshots").toString());
+            runParameters.setStreamingConversion(true);
+        }
+        if(!runParameters.useCodebookCache()){
+            runParameters.setCodebookCacheDirectory(workDirectory.resolve("codebooks").toString());
+        }
+        convert(runParameters);
+        try {
+            new CodebookDirectoryWatcher(Paths.get(runParameters.getCodebookDirectory()), debounceMillis).watch(() -> convert(runParameters));
+        } catch (IOException e){
+            logger.log(Level.ERROR, "Problem watching the codebook directory: {}", e.getMessage());
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        return exitConversionError;
+    }
+
+    /**
+     * runs the conversion
+     * @param runParameters parameters used for this run
+     * @return the exit code
+     */
+    private static int convert(RunParameters runParameters){
+        CodebookManager codebookManager = null;
+        RunStatistics.resetPeakHeap();
+        try {
+            logger.log(Level.INFO, "Reading codebooks...");
+            if(runParameters.useStreamingConversion()){
+                // only read the version of each codebook; the codebooks themselves are read while converting
+                codebookManager = CodebookManager.indexCodebooks(runParameters);
+                logger.log(Level.INFO, "Transforming codebooks and writing ArtDecor XML file...");
+                CodebookToArtDecorConvertor codebookToArtDecorConvertor = new CodebookToArtDecorConvertor(codebookManager, runParameters);
+                codebookToArtDecorConvertor.transformAndWriteOutput(runParameters.getOutputFile());
+            }
+            else {
+                // create the codebookmanager, reading the codebooks in the directory
+                codebookManager = CodebookManager.readCodebooks(runParameters);
+
+                // transform the codebooks to the artdecor datatypes
+                logger.log(Level.INFO, "Transforming codebooks...");
+                CodebookToArtDecorConvertor codebookToArtDecorConvertor = new CodebookToArtDecorConvertor(codebookManager, runParameters);
+                codebookToArtDecorConvertor.transformCodebooks();
+
+                // write the xml file
+                logger.log(Level.INFO, "Writing ArtDecor XML file...");
+                codebookToArtDecorConvertor.writeOutput(runParameters.getOutputFile());
+            }
+
+            if(runParameters.verifySnapshots()){
+                logger.log(Level.INFO, "Verifying the output against a full conversion...");
+                if(!CodebookToArtDecorConvertor.verifyOutput(runParameters, runParameters.getOutputFile(), codebookManager.getConversionMonitor())){
+                    logger.log(Level.ERROR, "The output is NOT the same as the output of a full conversion");
+                    return exitConversionError;
+                }
+                logger.log(Level.INFO, "The output is the same as the output of a full conversion");
+            }
+
+            logger.log(Level.INFO, "Finished!");
+            return exitOK;
+        } catch (Exception e){
+            logger.log(Level.ERROR, "A fatal error occurred:\n"+e.getMessage(), e);
+            return exitConversionError;
+        } finally {
+            // the problems in the codebooks and the run statistics are also reported when the conversion failed
+            if(codebookManager!=null){
+                try {
+                    codebookManager.reportDiagnostics();
+                } catch (IOException e){
+                    logger.log(Level.ERROR, "Problem writing the diagnostics report: {}", e.getMessage());
+                }
+                try {
+                    codebookManager.reportStatistics();
+                } catch (IOException e){
+                    logger.log(Level.ERROR, "Problem writing the run report: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * collect the parameters from the properties file and the command line
+     * @param args the command line arguments
+     * @return the parameters
+     * @throws IOException problem reading the properties file
+     */
+    private static Properties readParameters(String ... args) throws IOException {
+        Map<String, String> argumentMap = new LinkedHashMap<>();
+        for(String arg:args){
+            if(!arg.startsWith("--") || !arg.contains("=")){
+                throw new IllegalArgumentException("argument "+arg+" is not of the form --key=value");
+            }
+            int index = arg.indexOf('=');
+            argumentMap.put(arg.substring(2, index), arg.substring(index+1));
+        }
+
+        Properties properties = new Properties();
+        String configFile = argumentMap.remove("config");
+        if(configFile!=null){
+            try (Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(configFile)), StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        }
+        properties.putAll(argumentMap);
+        return properties;
+    }
+
+    /**
+     * create the run parameters, validating the values the same way the wizard does
+     * @param properties the parameters
+     * @return the run parameters
+     */
+    private static RunParameters createRunParameters(Properties properties){
+        String codebookDirectory = getRequired(properties, "codebookDirectory");
+        if(!new File(codebookDirectory).isDirectory()){
+            throw new IllegalArgumentException("codebookDirectory "+codebookDirectory+" is not a directory");
+        }
+        String projectId = getRequired(properties, "projectId");
+        String projectPrefix = getRequired(properties, "projectPrefix");
+        String experimental = getChoice(properties, "experimental", "true", "true", "false");
+        String statusCode = getChoice(properties, "statusCode", "draft", "draft", "final");
+
+        // authors are separated by a | or a newline; each author is userid;email address;name
+        String authorString = getRequired(properties, "authors").replace('|', '\n');
+        for(String author:authorString.split("\\n")){
+            if(author.split(";").length<3){
+                throw new IllegalArgumentException("author "+author+" is not of the form userid;email address;name");
+            }
+        }
+
+        RunParameters runParameters = new RunParameters(codebookDirectory, projectId, projectPrefix, experimental, authorString, statusCode);
+
+        List<String> languages = getList(properties, "languages");
+        if(languages.isEmpty()){
+            throw new IllegalArgumentException("no languages provided");
+        }
+        for(String language:languages){
+            if(!Statics.getLanguages().contains(language)){
+                throw new IllegalArgumentException("language "+language+" is not supported; supported are "+Statics.getLanguages());
+            }
+            String projectName = properties.getProperty("projectName."+language, "");
+            String projectDescription = properties.getProperty("projectDescription."+language, "");
+            runParameters.addLanguageSettings(language, projectDescription, projectName);
+        }
+        String defaultLanguage = properties.getProperty("defaultLanguage", languages.get(0));
+        if(!languages.contains(defaultLanguage)){
+            throw new IllegalArgumentException("defaultLanguage "+defaultLanguage+" is not one of the languages");
+        }
+        runParameters.setDefaultLanguage(defaultLanguage);
+
+        runParameters.setStreamingReader(Boolean.parseBoolean(properties.getProperty("streamingReader", "false")));
+        if(properties.containsKey("readerThreads")){
+            runParameters.setReaderThreads(getInt(properties, "readerThreads"));
+        }
+        runParameters.setStreamingConversion(Boolean.parseBoolean(properties.getProperty("streamingConversion", "false")));
+        if(!properties.getProperty("cacheDirectory", "").trim().isEmpty()){
+            runParameters.setCodebookCacheDirectory(properties.getProperty("cacheDirectory").trim());
+        }
+        if(!properties.getProperty("snapshotDirectory", "").trim().isEmpty()){
+            // the snapshots are stored and used while converting one version at a time
+            runParameters.setSnapshotDirectory(properties.getProperty("snapshotDirectory").trim());
+            runParameters.setStreamingConversion(true);
+        }
+        runParameters.setVerifySnapshots(Boolean.parseBoolean(properties.getProperty("verifySnapshots", "false")));
+        if(!properties.getProperty("identifierRegistry", "").trim().isEmpty()){
+            runParameters.setIdentifierRegistryFile(properties.getProperty("identifierRegistry").trim());
+        }
+        if(!properties.getProperty("diagnosticsReport", "").trim().isEmpty()){
+            runParameters.setDiagnosticsReportFile(properties.getProperty("diagnosticsReport").trim());
+        }
+        if(properties.containsKey("readAheadVersions")){
+            runParameters.setReadAheadVersions(getInt(properties, "readAheadVersions"));
+        }
+        return runParameters;
+    }
+
+    private static String getRequired(Properties properties, String key){
+        String value = properties.getProperty(key, "").trim();
+        if(value.isEmpty()){
+            throw new IllegalArgumentException("missing value for "+key);
+        }
+        return value;
+    }
+
+    private static String getChoice(Properties properties, String key, String defaultValue, String ... choices){
+        String value = properties.getProperty(key, defaultValue).trim();
+        if(!Arrays.asList(choices).contains(value)){
+            throw new IllegalArgumentException(key+" should be one of "+Arrays.toString(choices));
+        }
+        return value;
+    }
+
+    private static int getInt(Properties properties, String key){
+        try {
+            return Integer.parseInt(properties.getProperty(key).trim());
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException(key+" should be a number");
+        }
+    }
+
+    private static List<String> getList(Properties properties, String key){
+        List<String> values = new ArrayList<>();
+        for(String value:properties.getProperty(key, "").split(",")){
+            if(!value.trim().isEmpty()){
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    private static String getUsageText(){
+        return "Usage: java -cp <jar> cli.PALGACodebookToArtDecorCLI [--config=<properties file>] [--<key>=<value> ...]\n" +
+                "keys:\n" +
+                "  codebookDirectory                directory which contains one or more Excel codebooks (required)\n" +
+                "  projectId                        project id provided by Art-Decor (required)\n" +
+                "  projectPrefix                    project prefix provided by Art-Decor (required)\n" +
+                "  languages                        comma separated languages, e.g. nl,en (required)\n" +
+                "  defaultLanguage                  default language; the first language if not provided\n" +
+                "  projectName.<language>           project name in the language\n" +
+                "  projectDescription.<language>    project description in the language\n" +
+                "  experimental                     true/false; default true\n" +
+                "  statusCode                       draft/final; default draft\n" +
+                "  authors                          userid;email address;name, multiple authors separated by | (required)\n" +
+                "  streamingReader                  true/false; default false\n" +
+                "  readerThreads                    number of threads used to read the codebooks\n" +
+                "  streamingConversion              true/false, convert one version at a time to save memory; default false\n" +
+                "  readAheadVersions                number of versions read while converting a version in the\n" +
+                "                                   streaming conversion; default 2, 0 reads them one by one\n" +
+                "  cacheDirectory                   directory in which parsed codebooks are cached, so unchanged\n" +
+                "                                   codebooks are not parsed again in the next run\n" +
+                "  snapshotDirectory                directory in which the conversion state is stored after each\n" +
+                "                                   version, so the next run only converts the versions from the\n" +
+                "                                   first changed one on; implies streamingConversion\n" +
+                "  verifySnapshots                  true/false, check the output against a full conversion; default false\n" +
+                "  identifierRegistry               file in which the identifiers of concepts, valuesets and codesystems\n" +
+                "                                   are kept, so they get the same identifiers in every run\n" +
+                "  diagnosticsReport                file to which all problems found in the codebooks are written,\n" +
+                "                                   tab separated\n" +
+                "  watch                            true/false, convert again whenever a codebook in the directory is\n" +
+                "                                   saved; snapshots and cached codebooks are kept in the .conversion\n" +
+                "                                   directory of the codebook directory if no directories are set\n" +
+                "  watchDebounceMillis              time without changes after which a conversion starts; default 500";
+    }
+}
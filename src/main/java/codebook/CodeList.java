@@ -0,0 +1,138 @@
+package codebook;
+
+import utils.ColumnBinding;
+import utils.Diagnostics;
+import utils.ExcelUtils;
+import utils.RowHandler;
+
+import java.util.*;
+
+/**
+ * A codelist sheet of a codebook. Each sheet is parsed and validated once per workbook, after which its options are
+ * shared by all the concepts that refer to it
+ */
+class CodeList implements RowHandler {
+    private String codelist_ref;
+    private String versionLabel;
+    // the concept for which the sheet was read, used when reporting problems
+    private String conceptId;
+    private Set<String> languages;
+    private Diagnostics diagnostics;
+
+    private CodeListColumns codeListColumns;
+    // whether a problem with the sheet was reported while parsing it
+    private boolean problemsReported = false;
+    private Map<String, Concept.ConceptOption> conceptOptionsMap = new HashMap<>();
+
+    CodeList(String codelist_ref, String versionLabel, String conceptId, Set<String> languages, Diagnostics diagnostics){
+        this.codelist_ref = codelist_ref;
+        this.versionLabel = versionLabel;
+        this.conceptId = conceptId;
+        this.languages = languages;
+        this.diagnostics = diagnostics;
+    }
+
+    @Override
+    public void handleRow(int rowNum, List<String> rowValues) {
+        // retrieve the header of the sheet
+        if(rowNum==0){
+            ColumnBinding columnBinding = new ColumnBinding(rowValues, codelist_ref, diagnostics, versionLabel);
+            codeListColumns = new CodeListColumns(columnBinding, languages);
+            problemsReported |= columnBinding.hasMissingColumns();
+        }
+        // parse the remaining rows, skipping the empty ones
+        else if(codeListColumns!=null && !ExcelUtils.isEmptyRow(rowValues)){
+            addCodeListEntry(rowNum+1, rowValues);
+        }
+    }
+
+    /**
+     * whether the sheet was found and had a header
+     * @return true/false
+     */
+    boolean hasHeader(){
+        return codeListColumns!=null;
+    }
+
+    /**
+     * whether problems with the sheet were reported while parsing it
+     * @return true/false
+     */
+    boolean hasProblemsReported(){
+        return problemsReported;
+    }
+
+    String getCodelistRef(){
+        return codelist_ref;
+    }
+
+    /**
+     * the valid options of the codelist, by code
+     * @return unmodifiable map with the options
+     */
+    Map<String, Concept.ConceptOption> getConceptOptionsMap(){
+        return Collections.unmodifiableMap(conceptOptionsMap);
+    }
+
+    private boolean isValidEntry(int row, String codeListEntryCodesystem, String codeListEntryCode, String codeListEntryDescription_code){
+        boolean isValidEntry=true;
+
+        // first check whether one of the mandatory fields is empty
+        if(codeListEntryCode.equalsIgnoreCase("")){
+            report(Diagnostics.Code.MISSING_OPTION_CODE, row);
+            isValidEntry = false;
+        }
+        if(codeListEntryCodesystem.equalsIgnoreCase("")){
+            report(Diagnostics.Code.MISSING_OPTION_CODESYSTEM, row);
+            isValidEntry = false;
+        }
+        if(codeListEntryDescription_code.equalsIgnoreCase("")){
+            report(Diagnostics.Code.MISSING_OPTION_CODE_DESCRIPTION, row);
+            isValidEntry = false;
+        }
+        problemsReported |= !isValidEntry;
+        return isValidEntry;
+    }
+
+    private void report(Diagnostics.Code code, int row){
+        diagnostics.report(code, versionLabel, codelist_ref, row, conceptId, codelist_ref, conceptId);
+    }
+
+    private void addCodeListEntry(int row, List<String> rowValues){
+        String codeListEntryCode = codeListColumns.code.getValue(rowValues);
+        String codeListEntryDescription_code = codeListColumns.description_code.getValue(rowValues);
+        String codeListEntryCodesystem = codeListColumns.codesystem.getValue(rowValues);
+
+        if(isValidEntry(row, codeListEntryCodesystem, codeListEntryCode, codeListEntryDescription_code)){
+            Concept.ConceptOption conceptOption = new Concept.ConceptOption(codeListEntryCodesystem, codeListEntryCode, codeListEntryDescription_code);
+            for (String language : languages) {
+                String languageDescription = codeListColumns.descriptionColumnMap.get(language).getValue(rowValues);
+                String languageValue = codeListColumns.valueColumnMap.get(language).getValue(rowValues);
+                Concept.LanguageConceptOptions languageConceptOptions = new Concept.LanguageConceptOptions(language, languageValue, languageDescription);
+                conceptOption.addLanguageConceptOptions(language, languageConceptOptions);
+            }
+            conceptOptionsMap.put(codeListEntryCode, conceptOption);
+        }
+    }
+
+    /**
+     * the columns of a codelist sheet, resolved once from its header
+     */
+    private static class CodeListColumns {
+        private ColumnBinding.Column code;
+        private ColumnBinding.Column description_code;
+        private ColumnBinding.Column codesystem;
+        private Map<String, ColumnBinding.Column> descriptionColumnMap = new HashMap<>();
+        private Map<String, ColumnBinding.Column> valueColumnMap = new HashMap<>();
+
+        CodeListColumns(ColumnBinding columnBinding, Set<String> languages){
+            code = columnBinding.bind("code");
+            description_code = columnBinding.bind("description_code");
+            codesystem = columnBinding.bind("codesystem");
+            for(String language:languages){
+                descriptionColumnMap.put(language, columnBinding.bind("description_" + language));
+                valueColumnMap.put(language, columnBinding.bind("value_" + language));
+            }
+        }
+    }
+}
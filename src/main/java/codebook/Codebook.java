@@ -5,14 +5,17 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.ss.usermodel.WorkbookFactory;
 import settings.RunParameters;
 import settings.Statics;
+import utils.ColumnBinding;
+import utils.ConversionMonitor;
+import utils.CountingWorkbookReader;
+import utils.Diagnostics;
 import utils.ExcelUtils;
+import utils.WorkbookReader;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.text.ParseException;
@@ -24,8 +27,9 @@ import java.util.*;
  */
 class Codebook {
     private static final Logger logger = LogManager.getLogger(Codebook.class.getName());
-    private static final SimpleDateFormat parseFormat = new SimpleDateFormat("yyyy-MM-dd");
-    private static final SimpleDateFormat outFormat = new SimpleDateFormat("yyyy-MM-dd'T'kk:mm:ss");
+    // SimpleDateFormat is not thread safe and codebooks are read concurrently, so each thread gets its own
+    private static final ThreadLocal<SimpleDateFormat> parseFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd"));
+    private static final ThreadLocal<SimpleDateFormat> outFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd'T'kk:mm:ss"));
     private Date effectiveDateAsDate;
     private String effectiveDate;
 
@@ -33,27 +37,68 @@ class Codebook {
     private Map<String, CodebookLanguageParameters> codebookLanguageParametersMap = new HashMap<>();
 
     private RunParameters runParameters;
-    private List<String> headerList;
+    // collects the problems found while parsing; not part of a cached codebook, which has no problems
+    private Diagnostics diagnostics;
+    private MainSheetColumns mainSheetColumns;
     private Map<String, Concept> conceptMap = new LinkedHashMap<>();
+    // codelist sheets parsed so far, by sheet name (which, like the sheets themselves, is case insensitive)
+    private Map<String, CodeList> codeListMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    // whether problems with the codebook were reported while parsing it
+    private boolean problemsReported = false;
+    // number of sheets and rows read from the workbook; not part of a cached codebook, which is not read
+    private int sheetsRead = 0;
+    private int rowsRead = 0;
 
 
     private Codebook(RunParameters runParameters){
         this.runParameters = runParameters;
     }
 
-    static Codebook readExcel(Path path, RunParameters runParameters) throws IOException, InvalidFormatException {
+    /**
+     * read a codebook from its workbook
+     * @param path                 the workbook
+     * @param runParameters        parameters used for this run
+     * @param diagnostics          collects the problems found in the codebook
+     * @param conversionMonitor    counts the rows read
+     * @return the codebook
+     * @throws IOException
+     * @throws InvalidFormatException
+     */
+    static Codebook readExcel(Path path, RunParameters runParameters, Diagnostics diagnostics, ConversionMonitor conversionMonitor) throws IOException, InvalidFormatException {
         Codebook codebook = new Codebook(runParameters);
-        try (Workbook workbook = WorkbookFactory.create(path.toFile())) {
-            parseInfoSheet(codebook, workbook, runParameters);
-            parseMainSheet(codebook, workbook);
+        codebook.diagnostics = diagnostics;
+        try (CountingWorkbookReader workbookReader = new CountingWorkbookReader(WorkbookReader.open(path, runParameters.useStreamingReader()), conversionMonitor)) {
+            parseInfoSheet(codebook, workbookReader, runParameters);
+            parseMainSheet(codebook, workbookReader);
+            codebook.sheetsRead = workbookReader.getSheets();
+            codebook.rowsRead = workbookReader.getRows();
         }
+        // the concepts keep the options they use, the cache itself is no longer needed
+        codebook.codeListMap.clear();
         return codebook;
     }
 
-    private static void parseInfoSheet(Codebook codebook, Workbook workbook, RunParameters runParameters){
-        Sheet sheet = workbook.getSheet("Info");
-        if(sheet==null) throw new RuntimeException("Info sheet missing...");
-        Map<String, String> valueMap = createValueMap(sheet);
+    /**
+     * read only the version of a codebook from its Info sheet, without reading the rest of the workbook
+     * @param path          the workbook
+     * @return the version; 0 if the version is not an integer, which is reported when the codebook itself is read
+     * @throws IOException
+     * @throws InvalidFormatException
+     */
+    static int readDatasetVersion(Path path) throws IOException, InvalidFormatException {
+        // the streaming reader only parses the sheets it is asked for
+        try (WorkbookReader workbookReader = WorkbookReader.open(path, true)) {
+            String version = createValueMap(workbookReader).get("version");
+            try {
+                return Integer.parseInt(version);
+            } catch (NumberFormatException e){
+                return 0;
+            }
+        }
+    }
+
+    private static void parseInfoSheet(Codebook codebook, WorkbookReader workbookReader, RunParameters runParameters) throws IOException {
+        Map<String, String> valueMap = createValueMap(workbookReader);
         codebook.datasetVersionLabel = valueMap.get("version");
         codebook.setEffectiveDate(valueMap);
 
@@ -65,60 +110,55 @@ class Codebook {
         }
     }
 
-    private static Map<String, String> createValueMap(Sheet sheet){
+    private static Map<String, String> createValueMap(WorkbookReader workbookReader) throws IOException {
         Map<String, String> valueMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        int lastRowNr = sheet.getLastRowNum();
-        for(int i=0; i<=lastRowNr; i++){
-            Row row = sheet.getRow(i);
-            // if the row exists, add the information in the row to our excelCodebook
-            if(row!=null) {
-                String key = ExcelUtils.getCellValue(row, 0);
-                String value = ExcelUtils.getCellValue(row, 1);
-                valueMap.put(key, value);
-            }
-        }
+        // each row in the info sheet is a key and a value
+        boolean hasInfoSheet = workbookReader.readSheet("Info", (rowNum, rowValues) ->
+                valueMap.put(ExcelUtils.getCellValue(rowValues, 0), ExcelUtils.getCellValue(rowValues, 1)));
+        if(!hasInfoSheet) throw new RuntimeException("Info sheet missing...");
         return valueMap;
     }
 
-    private static void parseMainSheet(Codebook codebook, Workbook workbook){
+    private static void parseMainSheet(Codebook codebook, WorkbookReader workbookReader) throws IOException {
         // head to the main sheet of the codebook
-        Sheet sheet = workbook.getSheet("Codebook");
-
-        // first row contains the header.
-        Row row = sheet.getRow(0);
-        codebook.addHeader(row);
-
-        // iterate over the rest of the rows
-        int lastRowNr = sheet.getLastRowNum();
-        for(int i=1; i<=lastRowNr; i++){
-            row = sheet.getRow(i);
-            // if the row exists, add the information in the row to our excelCodebook
-            if(row!=null) {
-                codebook.addData(workbook, row);
+        boolean hasMainSheet = workbookReader.readSheet("Codebook", (rowNum, rowValues) -> {
+            // first row contains the header.
+            if(rowNum==0){
+                codebook.addHeader(rowValues);
             }
-        }
+            // add the information in the other rows to our excelCodebook
+            else if(codebook.mainSheetColumns!=null){
+                codebook.addData(workbookReader, rowNum+1, rowValues);
+            }
+            else{
+                throw new RuntimeException("Header missing in the Codebook sheet...");
+            }
+        });
+        if(!hasMainSheet) throw new RuntimeException("Codebook sheet missing...");
     }
 
     private void setEffectiveDate(Map<String, String> valueMap){
         if(valueMap.containsKey("effectiveDate")) {
             try {
-                effectiveDateAsDate = parseFormat.parse(valueMap.get("effectivedate"));
-                effectiveDate = outFormat.format(effectiveDateAsDate);
+                effectiveDateAsDate = parseFormat.get().parse(valueMap.get("effectivedate"));
+                effectiveDate = outFormat.get().format(effectiveDateAsDate);
 
             } catch (ParseException e) {
-                logger.log(Level.ERROR, "codebook version: {}; Severe Error: The effective date is not in the correct format {}", datasetVersionLabel, valueMap.get("effectivedate"));
+                diagnostics.report(Diagnostics.Code.INVALID_EFFECTIVE_DATE, datasetVersionLabel, "Info", 0, null, valueMap.get("effectivedate"));
+                problemsReported = true;
                 try{
-                    effectiveDateAsDate = parseFormat.parse("1900-01-01");
-                    effectiveDate = outFormat.format(effectiveDateAsDate);
+                    effectiveDateAsDate = parseFormat.get().parse("1900-01-01");
+                    effectiveDate = outFormat.get().format(effectiveDateAsDate);
                 } catch (ParseException e1) {
                     e1.printStackTrace();
                 }
             }
         }
         else{
-            logger.log(Level.WARN, "codebook version: {}; Warning: The Effectivedate is not available in the INFO sheet (yyyy-mm-dd). Setting it to today... ", datasetVersionLabel);
+            diagnostics.report(Diagnostics.Code.MISSING_EFFECTIVE_DATE, datasetVersionLabel, "Info", 0, null);
+            problemsReported = true;
             effectiveDateAsDate = new Date();
-            effectiveDate = outFormat.format(effectiveDateAsDate);
+            effectiveDate = outFormat.get().format(effectiveDateAsDate);
         }
     }
 
@@ -132,85 +172,84 @@ class Codebook {
     }
 
 
-    private void addHeader(Row row){
-        headerList = ExcelUtils.getRowAsList(row);
+    private void addHeader(List<String> rowValues){
+        ColumnBinding columnBinding = new ColumnBinding(rowValues, "Codebook", diagnostics, datasetVersionLabel);
+        mainSheetColumns = new MainSheetColumns(columnBinding, runParameters.getLanguages());
+        problemsReported |= columnBinding.hasMissingColumns();
     }
 
-    private boolean isValidEntry(String id, String codesystem, String code, String description_code){
+    private boolean isValidEntry(int row, String id, String codesystem, String code, String description_code){
         boolean isValid=true;
         if(conceptMap.containsKey(id)){
-            logger.log(Level.ERROR, "codebook version: {}; Concept: The identifier in the codebook must be unique {}", datasetVersionLabel, id);
+            diagnostics.report(Diagnostics.Code.DUPLICATE_CONCEPT, datasetVersionLabel, "Codebook", row, id, id);
             isValid = false;
         }
         if(Statics.mayBeTypo(codesystem)){
-            logger.log(Level.WARN, "codebook version: {}; Concept: Codesystem found: {} for {}. Did you mean {}?", datasetVersionLabel, codesystem, id, Statics.getTypoValue(codesystem));
+            diagnostics.report(Diagnostics.Code.CODESYSTEM_TYPO, datasetVersionLabel, "Codebook", row, id, codesystem, id, Statics.getTypoValue(codesystem));
+            problemsReported = true;
         }
         if(code.equalsIgnoreCase("")){
-            logger.log(Level.ERROR, "codebook version: {}; Concept: Mandatory code missing for concept {}", datasetVersionLabel, id);
+            diagnostics.report(Diagnostics.Code.MISSING_CODE, datasetVersionLabel, "Codebook", row, id, id);
             isValid = false;
         }
         if(codesystem.equalsIgnoreCase("")){
-            logger.log(Level.ERROR, "codebook version: {}; Concept: Mandatory codesystem missing for concept {}", datasetVersionLabel, id);
+            diagnostics.report(Diagnostics.Code.MISSING_CODESYSTEM, datasetVersionLabel, "Codebook", row, id, id);
             isValid = false;
         }
         if(description_code.equalsIgnoreCase("")){
-            logger.log(Level.ERROR, "codebook version: {}; Concept: Mandatory code description missing for concept {}", datasetVersionLabel, id);
+            diagnostics.report(Diagnostics.Code.MISSING_CODE_DESCRIPTION, datasetVersionLabel, "Codebook", row, id, id);
             isValid = false;
         }
+        problemsReported |= !isValid;
         return isValid;
     }
 
-    private void addData(Workbook workbook, Row row){
+    private void addData(WorkbookReader workbookReader, int row, List<String> rowValues) throws IOException {
         // create a codebook item for the row and store it in a map
-        String id = ExcelUtils.getValue(row, "id", headerList);
-        String codesystem = ExcelUtils.getValue(row, "codesystem", headerList);
-        String code = ExcelUtils.getValue(row, "code", headerList);
-        String description_code = ExcelUtils.getValue(row, "description_code", headerList);
-        String codelist_ref = ExcelUtils.getValue(row, "codelist_ref", headerList);
-        String properties =  ExcelUtils.getValue(row, "properties", headerList);
-        String parent = ExcelUtils.getValue(row, "parent", headerList);
-        String data_type = ExcelUtils.getValue(row, "data_type", headerList);
+        String id = mainSheetColumns.id.getValue(rowValues);
+        String codesystem = mainSheetColumns.codesystem.getValue(rowValues);
+        String code = mainSheetColumns.code.getValue(rowValues);
+        String description_code = mainSheetColumns.description_code.getValue(rowValues);
+        String codelist_ref = mainSheetColumns.codelist_ref.getValue(rowValues);
+        String properties =  mainSheetColumns.properties.getValue(rowValues);
+        String parent = mainSheetColumns.parent.getValue(rowValues);
+        String data_type = mainSheetColumns.data_type.getValue(rowValues);
 
         // If the concept itself is invalid, we basically stop for this entry. This also implies that any errors made
         // in the concept's codelist will not be shown until the concept itself is fixed.
-        if(isValidEntry(id, codesystem, code, description_code)) {
+        if(isValidEntry(row, id, codesystem, code, description_code)) {
             Concept concept = new Concept(id, codesystem, code, description_code, properties, codelist_ref, parent, data_type, effectiveDate, datasetVersionLabel, runParameters.getStatusCode());
 
-            Set<String> languages = runParameters.getLanguages();
-            for (String language : languages) {
-                String languageDescription = ExcelUtils.getValue(row, "description_" + language, headerList);
-                concept.addLanguageConcept(language, languageDescription);
+            for (Map.Entry<String, ColumnBinding.Column> entry : mainSheetColumns.descriptionColumnMap.entrySet()) {
+                String languageDescription = entry.getValue().getValue(rowValues);
+                concept.addLanguageConcept(entry.getKey(), languageDescription);
             }
 
             conceptMap.put(id, concept);
 
             // if the codebook item has a codelist add it as well
             if (!codelist_ref.equalsIgnoreCase("")) {
-                addCodeList(workbook, concept, codelist_ref);
+                addCodeList(workbookReader, row, concept, codelist_ref);
             }
         }
     }
 
-    private void addCodeList(Workbook workbook, Concept concept, String codelist_ref) {
-        try {
-            Sheet sheet = workbook.getSheet(codelist_ref);
-
-            // retrieve the header of the sheet
-            Row row = sheet.getRow(0);
-            List<String> codelistHeaderList = ExcelUtils.getRowAsList(row);
-
-            // parse the remaining rows
-            int lastRowNr = sheet.getLastRowNum();
-            for (int i = 1; i <= lastRowNr; i++) {
-                row = sheet.getRow(i);
-                // if the row exists, add the information in the row to our excelCodebook
-                if (row != null && !ExcelUtils.isEmptyRow(row)) {
-                    concept.addCodeListEntry(row, codelistHeaderList, runParameters.getLanguages(), codelist_ref);
-//                    addCodeListEntry(concept, row, codelistHeaderList);
-                }
-            }
-        } catch (NullPointerException e){
-            logger.log(Level.ERROR, "codebook version: {}; Severe Error: Issue adding codelist, ref = {}", datasetVersionLabel, codelist_ref);
+    private void addCodeList(WorkbookReader workbookReader, int row, Concept concept, String codelist_ref) throws IOException {
+        // many concepts share the same codelist, so each sheet is only read the first time it is referred to
+        CodeList codeList = codeListMap.get(codelist_ref);
+        if(codeList==null){
+            codeList = new CodeList(codelist_ref, datasetVersionLabel, concept.getId(), runParameters.getLanguages(), diagnostics);
+            workbookReader.readSheet(codelist_ref, codeList);
+            codeListMap.put(codelist_ref, codeList);
+            problemsReported |= codeList.hasProblemsReported();
+        }
+
+        if(codeList.hasHeader()){
+            concept.setCodeList(codeList, diagnostics, row);
+        }
+        else{
+            diagnostics.report(Diagnostics.Code.MISSING_CODELIST, datasetVersionLabel, "Codebook", row, concept.getId(), codelist_ref);
+            problemsReported = true;
         }
     }
 
@@ -265,6 +304,111 @@ class Codebook {
         return effectiveDateAsDate;
     }
 
+    /**
+     * whether problems with the codebook were reported while parsing it
+     * @return true/false
+     */
+    boolean hasProblemsReported(){
+        return problemsReported;
+    }
+
+    /**
+     * get the number of sheets read from the workbook
+     * @return the number of sheets; 0 for a cached codebook
+     */
+    int getSheetsRead(){
+        return sheetsRead;
+    }
+
+    /**
+     * get the number of rows read from the workbook
+     * @return the number of rows; 0 for a cached codebook
+     */
+    int getRowsRead(){
+        return rowsRead;
+    }
+
+    /**
+     * write the parsed codebook in the format of the codebook cache
+     * @param out    the output
+     * @throws IOException
+     */
+    void writeCache(DataOutput out) throws IOException {
+        CodebookCache.writeString(out, datasetVersionLabel);
+        CodebookCache.writeString(out, effectiveDate);
+        out.writeLong(effectiveDateAsDate.getTime());
+        out.writeInt(codebookLanguageParametersMap.size());
+        for(Map.Entry<String, CodebookLanguageParameters> entry:codebookLanguageParametersMap.entrySet()){
+            CodebookCache.writeString(out, entry.getKey());
+            CodebookCache.writeString(out, entry.getValue().datasetDescription);
+            CodebookCache.writeString(out, entry.getValue().datasetName);
+        }
+        // the options of a codelist are only written for the first concept which refers to it
+        Set<String> writtenCodeLists = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        out.writeInt(conceptMap.size());
+        for(Concept concept:conceptMap.values()){
+            concept.writeCache(out, writtenCodeLists);
+        }
+    }
+
+    /**
+     * read a codebook which was written by writeCache
+     * @param in               the input
+     * @param runParameters    parameters used for this run
+     * @return the codebook
+     * @throws IOException
+     */
+    static Codebook readCache(DataInput in, RunParameters runParameters) throws IOException {
+        Codebook codebook = new Codebook(runParameters);
+        codebook.datasetVersionLabel = CodebookCache.readString(in);
+        codebook.effectiveDate = CodebookCache.readString(in);
+        codebook.effectiveDateAsDate = new Date(in.readLong());
+        int languages = in.readInt();
+        for(int i=0; i<languages; i++){
+            String language = CodebookCache.readString(in);
+            String datasetDescription = CodebookCache.readString(in);
+            String datasetName = CodebookCache.readString(in);
+            codebook.addLanguageSetting(language, datasetDescription, datasetName);
+        }
+        // the concepts which refer to the same codelist share its options, as they do when the workbook is parsed
+        Map<String, Map<String, Concept.ConceptOption>> readCodeLists = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int concepts = in.readInt();
+        for(int i=0; i<concepts; i++){
+            Concept concept = Concept.readCache(in, readCodeLists);
+            codebook.conceptMap.put(concept.getId(), concept);
+        }
+        return codebook;
+    }
+
+    /**
+     * the columns of the main sheet, resolved once from its header
+     */
+    private static class MainSheetColumns {
+        private ColumnBinding.Column id;
+        private ColumnBinding.Column codesystem;
+        private ColumnBinding.Column code;
+        private ColumnBinding.Column description_code;
+        private ColumnBinding.Column codelist_ref;
+        private ColumnBinding.Column properties;
+        private ColumnBinding.Column parent;
+        private ColumnBinding.Column data_type;
+        private Map<String, ColumnBinding.Column> descriptionColumnMap = new LinkedHashMap<>();
+
+        MainSheetColumns(ColumnBinding columnBinding, Set<String> languages){
+            id = columnBinding.bind("id");
+            codesystem = columnBinding.bind("codesystem");
+            code = columnBinding.bind("code");
+            description_code = columnBinding.bind("description_code");
+            codelist_ref = columnBinding.bind("codelist_ref");
+            properties = columnBinding.bind("properties");
+            parent = columnBinding.bind("parent");
+            data_type = columnBinding.bind("data_type");
+            for(String language:languages){
+                descriptionColumnMap.put(language, columnBinding.bind("description_" + language));
+            }
+        }
+    }
+
     private class CodebookLanguageParameters{
         private String datasetDescription="";
         private String datasetName="";
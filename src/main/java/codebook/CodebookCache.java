@@ -0,0 +1,196 @@
+package codebook;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import settings.RunParameters;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of parsed codebooks. Most codebook files do not change between runs, so instead of parsing a workbook
+ * again, the codebook parsed in an earlier run is read from a compact binary file. The file is named after a hash of
+ * the workbook's contents and of the run parameters which affect the parsing (the languages and the status code), so
+ * a changed workbook is parsed again, after which its old entry is no longer used and is evicted.
+ * Codebooks for which problems were reported while parsing are not cached, so the problems are reported in every run
+ */
+class CodebookCache {
+    private static final Logger logger = LogManager.getLogger(CodebookCache.class.getName());
+    // changes whenever the format of the entries changes, which invalidates all existing entries
+    private static final int formatVersion = 1;
+    private static final String entryExtension = ".codebook";
+
+    private Path cacheDirectory;
+    private RunParameters runParameters;
+    // the entries of the workbooks of this run, by workbook
+    private Map<Path, Path> entryMap = new ConcurrentHashMap<>();
+
+    CodebookCache(RunParameters runParameters) throws IOException {
+        this.runParameters = runParameters;
+        this.cacheDirectory = Paths.get(runParameters.getCodebookCacheDirectory());
+        Files.createDirectories(cacheDirectory);
+    }
+
+    /**
+     * get a codebook from the cache
+     * @param file    the workbook of the codebook
+     * @return the codebook, or null if the workbook is not in the cache
+     * @throws IOException    problem reading the workbook
+     */
+    Codebook get(Path file) throws IOException {
+        Path entry = getEntry(file);
+        if(!Files.isRegularFile(entry)){
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            return Codebook.readCache(in, runParameters);
+        } catch (IOException | RuntimeException e){
+            // a damaged entry is replaced once the workbook is parsed
+            logger.log(Level.WARN, "Problem reading the cached codebook of {}: {}", file.getFileName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * store a parsed codebook in the cache; nothing is stored if problems were reported while parsing it
+     * @param file        the workbook of the codebook
+     * @param codebook    the codebook
+     * @throws IOException    problem reading the workbook
+     */
+    void put(Path file, Codebook codebook) throws IOException {
+        if(codebook.hasProblemsReported()){
+            return;
+        }
+        Path entry = getEntry(file);
+        // write to a temporary file first, so no partial entry is ever read
+        Path tempFile = Files.createTempFile(cacheDirectory, "codebook", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                codebook.writeCache(out);
+            }
+            Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e){
+            // the cache only saves time, so the conversion continues
+            logger.log(Level.WARN, "Problem caching the codebook of {}: {}", file.getFileName(), e.getMessage());
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * remove the entries which do not belong to a workbook of this run
+     * @throws IOException
+     */
+    void evictUnused() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDirectory, "*"+entryExtension)) {
+            for (Path entry : stream) {
+                if(!entryMap.containsValue(entry)){
+                    Files.deleteIfExists(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * get the entry of a workbook, hashing the workbook the first time
+     * @param file    the workbook
+     * @return path of the entry
+     * @throws IOException
+     */
+    Path getEntry(Path file) throws IOException {
+        Path entry = entryMap.get(file);
+        if(entry==null){
+            entry = cacheDirectory.resolve(createKey(file)+entryExtension);
+            entryMap.put(file, entry);
+        }
+        return entry;
+    }
+
+    private String createKey(Path file) throws IOException {
+        MessageDigest messageDigest = createDigest();
+        messageDigest.update((formatVersion+"\n"+runParameters.getStatusCode()+"\n"+new TreeSet<>(runParameters.getLanguages())+"\n").getBytes(StandardCharsets.UTF_8));
+        addFile(messageDigest, file);
+        return toHex(messageDigest.digest());
+    }
+
+    /**
+     * create the digest used to identify workbooks
+     * @return SHA-256 digest
+     */
+    static MessageDigest createDigest(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * add the contents of a file to a digest
+     * @param messageDigest    the digest
+     * @param file             the file
+     * @throws IOException
+     */
+    static void addFile(MessageDigest messageDigest, Path file) throws IOException {
+        byte [] buffer = new byte[65536];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while((read = inputStream.read(buffer))!=-1){
+                messageDigest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * format a digest as a hexadecimal string, which is used as file name
+     * @param digest    the digest
+     * @return the hexadecimal string
+     */
+    static String toHex(byte [] digest){
+        StringBuilder stringBuilder = new StringBuilder();
+        for(byte b:digest){
+            stringBuilder.append(String.format("%02x", b));
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * write a string which may be null and, unlike DataOutput.writeUTF, may be longer than 64k
+     * @param out      the output
+     * @param value    the string
+     * @throws IOException
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        if(value==null){
+            out.writeInt(-1);
+        }
+        else {
+            byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * read a string which was written by writeString
+     * @param in    the input
+     * @return the string
+     * @throws IOException
+     */
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if(length==-1){
+            return null;
+        }
+        byte [] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
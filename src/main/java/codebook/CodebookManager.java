@@ -5,10 +5,19 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import settings.RunParameters;
+import utils.ConversionMonitor;
+import utils.Diagnostics;
+import utils.RunStatistics;
 
 import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Codebook manager
@@ -16,21 +25,140 @@ import java.util.*;
  */
 public class CodebookManager {
     private static final Logger logger = LogManager.getLogger(CodebookManager.class.getName());
+    // how often a wait for a codebook checks whether the run was cancelled
+    private static final int cancellationCheckMillis = 100;
     private Map<Integer, Codebook> codebookMap = new TreeMap<>();
+    // the files of the codebooks which are read when they are needed, by version
+    private TreeMap<Integer, Path> codebookFileMap = new TreeMap<>();
+    // codebooks which are being read ahead of their use, by version
+    private Map<Integer, Future<Codebook>> readAheadMap = new HashMap<>();
+    private ExecutorService readAheadService;
+    // parsed codebooks of earlier runs; null if the codebooks are not cached
+    private CodebookCache codebookCache;
+    private RunParameters runParameters;
+    // the problems found in the codebooks
+    private Diagnostics diagnostics = new Diagnostics();
+    // the timings and counters of the run
+    private RunStatistics runStatistics = new RunStatistics();
+    // the live progress of the run, shown by JMX tools, which is also used to cancel the run
+    private ConversionMonitor conversionMonitor;
 
-    private CodebookManager(){}
+    private CodebookManager(RunParameters runParameters, ConversionMonitor conversionMonitor) throws IOException {
+        this.runParameters = runParameters;
+        this.conversionMonitor = conversionMonitor;
+        conversionMonitor.register(runParameters.getCodebookDirectory());
+        if(runParameters.useCodebookCache()){
+            codebookCache = new CodebookCache(runParameters);
+        }
+    }
 
     /**
      * read the excel codebooks found in a directory (specifief in the runparameters)
+     * the workbooks are parsed concurrently by a pool of worker threads, the size of which is set in the runparameters
+     * if a cache directory is set in the runparameters, only the workbooks which changed since the last run are parsed
      * @param runParameters    parameters used for this run
      * @return the codebookmanager which can be used to access the codebooks
      * @throws IOException
      * @throws InvalidFormatException
      */
     public static CodebookManager readCodebooks(RunParameters runParameters) throws IOException, InvalidFormatException {
-        CodebookManager codebookManager = new CodebookManager();
-        String codebookDirectory = runParameters.getCodebookDirectory();
+        return readCodebooks(runParameters, new ConversionMonitor());
+    }
+
+    /**
+     * read the excel codebooks found in a directory (specifief in the runparameters), reporting the progress to a
+     * conversion monitor, through which the reading can be cancelled
+     * @param runParameters        parameters used for this run
+     * @param conversionMonitor    the monitor of the run
+     * @return the codebookmanager which can be used to access the codebooks
+     * @throws IOException
+     * @throws InvalidFormatException
+     * @throws java.util.concurrent.CancellationException    the run was cancelled
+     */
+    public static CodebookManager readCodebooks(RunParameters runParameters, ConversionMonitor conversionMonitor) throws IOException, InvalidFormatException {
+        CodebookManager codebookManager = new CodebookManager(runParameters, conversionMonitor);
+        long startTime = System.nanoTime();
+        List<Path> files = findCodebookFiles(runParameters.getCodebookDirectory());
+        codebookManager.conversionMonitor.startPhase("read", files.size());
+        if(files.isEmpty()){
+            return codebookManager;
+        }
+
+        int threads = Math.min(runParameters.getReaderThreads(), files.size());
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            // each workbook is independent, so parse them all in parallel
+            List<Future<Codebook>> futureList = new ArrayList<>();
+            for (Path file : files) {
+                futureList.add(executorService.submit(() -> {
+                    conversionMonitor.checkCancelled();
+                    Codebook codebook = codebookManager.readCodebook(file);
+                    codebookManager.conversionMonitor.stepDone();
+                    return codebook;
+                }));
+            }
+
+            // collect the results in the order of the files; the codebookMap orders them by version
+            for (Future<Codebook> future : futureList) {
+                codebookManager.addCodebook(codebookManager.getResult(future));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        codebookManager.evictUnusedCodebooks();
+        codebookManager.runStatistics.addPhase("read", startTime);
+        return codebookManager;
+    }
+
+    /**
+     * find the excel codebooks in a directory (specified in the runparameters) and their versions, without reading
+     * the codebooks themselves. The codebooks are read by loadCodebook when they are needed, so only one of them
+     * has to be kept in memory at any time
+     * @param runParameters    parameters used for this run
+     * @return the codebookmanager which can be used to load the codebooks
+     * @throws IOException
+     * @throws InvalidFormatException
+     */
+    public static CodebookManager indexCodebooks(RunParameters runParameters) throws IOException, InvalidFormatException {
+        return indexCodebooks(runParameters, new ConversionMonitor());
+    }
+
+    /**
+     * find the excel codebooks in a directory (specified in the runparameters) and their versions, reporting the
+     * progress of the run to a conversion monitor, through which the run can be cancelled
+     * @param runParameters        parameters used for this run
+     * @param conversionMonitor    the monitor of the run
+     * @return the codebookmanager which can be used to load the codebooks
+     * @throws IOException
+     * @throws InvalidFormatException
+     * @throws java.util.concurrent.CancellationException    the run was cancelled
+     */
+    public static CodebookManager indexCodebooks(RunParameters runParameters, ConversionMonitor conversionMonitor) throws IOException, InvalidFormatException {
+        CodebookManager codebookManager = new CodebookManager(runParameters, conversionMonitor);
+        long startTime = System.nanoTime();
+        List<Path> files = findCodebookFiles(runParameters.getCodebookDirectory());
+        codebookManager.conversionMonitor.startPhase("index", files.size());
+        for(Path file:files){
+            conversionMonitor.checkCancelled();
+            codebookManager.codebookFileMap.put(Codebook.readDatasetVersion(file), file);
+            if(codebookManager.codebookCache!=null){
+                codebookManager.codebookCache.getEntry(file);
+            }
+            codebookManager.conversionMonitor.stepDone();
+        }
+        codebookManager.evictUnusedCodebooks();
+        codebookManager.runStatistics.addPhase("index", startTime);
+        return codebookManager;
+    }
 
+    /**
+     * find the excel files in a directory
+     * @param codebookDirectory the directory
+     * @return list with the excel files, in the order in which the directory lists them
+     * @throws IOException
+     */
+    private static List<Path> findCodebookFiles(String codebookDirectory) throws IOException {
+        List<Path> files = new ArrayList<>();
         // read all files in the directory
         Path dir = FileSystems.getDefault().getPath(codebookDirectory);
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
@@ -38,14 +166,128 @@ public class CodebookManager {
                 String fileName = file.getFileName().toString();
                 // if the file is a proper excel file, create a codebook for it
                 if(fileName.endsWith(".xlsx") && !(fileName.startsWith("~"))) {
-                    logger.log(Level.INFO, "Reading codebook: {}", file.getFileName());
-//                    System.out.println(file.getFileName());
-                    Codebook codebook = Codebook.readExcel(file, runParameters);
-                    codebookManager.addCodebook(codebook);
+                    files.add(file);
                 }
             }
         }
-        return codebookManager;
+        return files;
+    }
+
+    /**
+     * read a codebook, using the cached codebook if the workbook did not change since it was cached
+     * @param file    the workbook
+     * @return the codebook
+     * @throws IOException
+     * @throws InvalidFormatException
+     */
+    private Codebook readCodebook(Path file) throws IOException, InvalidFormatException {
+        long startTime = System.nanoTime();
+        conversionMonitor.startWorkbook(file.getFileName().toString());
+        if(codebookCache!=null){
+            Codebook codebook = codebookCache.get(file);
+            conversionMonitor.addCodebookCacheLookup(codebook!=null);
+            if(codebook!=null){
+                logger.log(Level.INFO, "Using cached codebook: {}", file.getFileName());
+                runStatistics.addWorkbook(file.getFileName().toString(), true, startTime, 0, 0);
+                return codebook;
+            }
+        }
+        logger.log(Level.INFO, "Reading codebook: {}", file.getFileName());
+        Codebook codebook = Codebook.readExcel(file, runParameters, diagnostics, conversionMonitor);
+        if(codebookCache!=null){
+            codebookCache.put(file, codebook);
+        }
+        runStatistics.addWorkbook(file.getFileName().toString(), false, startTime, codebook.getSheetsRead(), codebook.getRowsRead());
+        return codebook;
+    }
+
+    /**
+     * get the problems found in the codebooks read so far
+     * @return the diagnostics
+     */
+    public Diagnostics getDiagnostics(){
+        return diagnostics;
+    }
+
+    /**
+     * log a summary of the problems found in the codebooks and, if a report file is set in the runparameters, write
+     * all problems to the report file
+     * @throws IOException problem writing the report file
+     */
+    public void reportDiagnostics() throws IOException {
+        diagnostics.logSummary();
+        if(runParameters.getDiagnosticsReportFile()!=null){
+            diagnostics.writeReport(Paths.get(runParameters.getDiagnosticsReportFile()));
+        }
+    }
+
+    /**
+     * get the timings and counters of the run
+     * @return the run statistics
+     */
+    public RunStatistics getRunStatistics(){
+        return runStatistics;
+    }
+
+    /**
+     * get the live progress of the run
+     * @return the conversion monitor
+     */
+    public ConversionMonitor getConversionMonitor(){
+        return conversionMonitor;
+    }
+
+    /**
+     * mark the run as finished, log the timings and counters of the run as a table and write them to the run report
+     * @throws IOException problem writing the run report
+     */
+    public void reportStatistics() throws IOException {
+        conversionMonitor.finish();
+        runStatistics.logSummary();
+        Path runReportFile = Paths.get(runParameters.getRunReportFile());
+        runStatistics.writeReport(runReportFile);
+        logger.log(Level.INFO, "Wrote the run report to {}", runReportFile);
+    }
+
+    /**
+     * remove the cached codebooks of workbooks which changed or no longer exist
+     * @throws IOException
+     */
+    private void evictUnusedCodebooks() throws IOException {
+        if(codebookCache!=null){
+            codebookCache.evictUnused();
+        }
+    }
+
+    /**
+     * wait for a worker to finish reading its codebook, rethrowing whatever went wrong while reading it. A workbook
+     * is loaded as a whole before its rows are read, which cannot be cancelled, so the wait itself stops when the
+     * run is cancelled
+     * @param future the worker's result
+     * @return the codebook
+     * @throws IOException
+     * @throws InvalidFormatException
+     */
+    private Codebook getResult(Future<Codebook> future) throws IOException, InvalidFormatException {
+        try {
+            while(true) {
+                try {
+                    return future.get(cancellationCheckMillis, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    conversionMonitor.checkCancelled();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the codebooks", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) throw (IOException) cause;
+            if(cause instanceof InvalidFormatException) throw (InvalidFormatException) cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if(cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
     }
 
     /**
@@ -61,7 +303,15 @@ public class CodebookManager {
      * @return set with all versions
      */
     Set<Integer> getCodebookVersions(){
-        return codebookMap.keySet();
+        return codebookFileMap.isEmpty() ? codebookMap.keySet() : codebookFileMap.keySet();
+    }
+
+    /**
+     * get the files of the indexed codebooks
+     * @return map with the files, ordered by version
+     */
+    Map<Integer, Path> getCodebookFiles(){
+        return Collections.unmodifiableMap(codebookFileMap);
     }
 
     /**
@@ -73,5 +323,47 @@ public class CodebookManager {
         return codebookMap.get(version);
     }
 
+    /**
+     * get the codebook of a version, reading it if the codebooks were indexed. Codebooks which are read are not
+     * kept by the manager. The versions are expected to be loaded in order: while the caller works on a version, the
+     * next versions (as many as the read ahead set in the runparameters) are read by worker threads, so reading
+     * and transforming overlap. stopReading has to be called when the caller is done
+     * @param version    the version for which to retrieve the codebook
+     * @return the codebook
+     * @throws IOException
+     * @throws InvalidFormatException
+     */
+    Codebook loadCodebook(Integer version) throws IOException, InvalidFormatException {
+        Path file = codebookFileMap.get(version);
+        if(file==null){
+            return getCodebook(version);
+        }
+        int readAhead = runParameters.getReadAheadVersions();
+        if(readAhead==0){
+            return readCodebook(file);
+        }
+
+        if(readAheadService==null){
+            readAheadService = Executors.newFixedThreadPool(Math.min(runParameters.getReaderThreads(), readAhead+1));
+        }
+        // make sure this version and the next ones are being read; the number of codebooks which are read but not
+        // yet used is limited by the read ahead, which caps the memory use
+        Iterator<Map.Entry<Integer, Path>> iterator = codebookFileMap.tailMap(version, true).entrySet().iterator();
+        for(int i=0; i<=readAhead && iterator.hasNext(); i++){
+            Map.Entry<Integer, Path> entry = iterator.next();
+            readAheadMap.computeIfAbsent(entry.getKey(), key -> readAheadService.submit(() -> readCodebook(entry.getValue())));
+        }
+        return getResult(readAheadMap.remove(version));
+    }
 
+    /**
+     * stop reading codebooks ahead, discarding the ones which have not been used
+     */
+    void stopReading(){
+        if(readAheadService!=null){
+            readAheadService.shutdownNow();
+            readAheadService = null;
+        }
+        readAheadMap.clear();
+    }
 }
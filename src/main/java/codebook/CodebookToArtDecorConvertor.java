@@ -1,12 +1,21 @@
 package codebook;
 
 import artdecor.*;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import settings.IdentifierManager;
 import settings.RunParameters;
-
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import utils.ConversionMonitor;
+import utils.CountingOutputStream;
+import utils.Diagnostics;
+import utils.RunStatistics;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.function.IntFunction;
 
 /**
  * datasets can contain multiple versions of a dataset
@@ -23,7 +32,11 @@ import java.util.*;
  * new one, with the date again reflecting when the set is in use
  */
 public class CodebookToArtDecorConvertor {
+    private static final Logger logger = LogManager.getLogger(CodebookToArtDecorConvertor.class.getName());
+    private static final int outputBufferSize = 1 << 16;
+
     private CodebookManager codebookManager;
+    private RunParameters runParameters;
 
     private ArtDecorProject artDecorProject;
 
@@ -32,6 +45,8 @@ public class CodebookToArtDecorConvertor {
     private Map<String, ArtDecorConcept> artDecorConceptMap = new HashMap<>();
     private Map<String, ArtDecorValueSet> artDecorValueSetMap = new HashMap<>();
     private Map<String, ArtDecorValueSet> artDecorChangedValueSetMap;
+    // the valuesets which the version being transformed replaced by a changed valueset
+    private List<ArtDecorValueSet> artDecorReplacedValueSetList;
 
     // keeps track of the current ArtDecorConceptListId for a conceptId, allowing us to reuse the conceptListId for inheritence
     private Map<String, String> conceptIdToArtDecorConceptListIdMap = new HashMap<>();
@@ -43,17 +58,59 @@ public class CodebookToArtDecorConvertor {
     private List<ArtDecorTerminologyConcept> artDecorTerminologyConceptList = new ArrayList<>();
     private List<ArtDecorTerminologyValueSet> artDecorTerminologyValueSetList = new ArrayList<>();
     private List<ArtDecorValueSet> artDecorValueSetList = new ArrayList<>();
+    // the terminology of the versions already written by transformAndWriteOutput, which only keeps the lists above
+    // for the version being transformed
+    private StreamedTerminology streamedTerminology;
+
+    private IdentifierManager identifierManager;
+
+    // the concepts of which the data type was changed, which is not allowed; reported once all versions are transformed
+    private List<String> dataTypeViolationList = new ArrayList<>();
 
-    private IdentifierManager identifierManager = IdentifierManager.getIdentifierManager();
+    /**
+     * create a convertor with its own identifier manager
+     * @param codebookManager      the codebooks to convert
+     * @param runParameters        parameters used for this run
+     * @throws IOException problem reading the identifier registry
+     */
+    public CodebookToArtDecorConvertor(CodebookManager codebookManager, RunParameters runParameters) throws IOException {
+        this(codebookManager, runParameters, new IdentifierManager(runParameters));
+    }
 
-    public CodebookToArtDecorConvertor(CodebookManager codebookManager, RunParameters runParameters){
+    /**
+     * create a convertor which uses the given identifier manager to hand out its identifiers
+     * @param codebookManager      the codebooks to convert
+     * @param runParameters        parameters used for this run
+     * @param identifierManager    the identifier manager, which should not be shared with other conversions
+     */
+    public CodebookToArtDecorConvertor(CodebookManager codebookManager, RunParameters runParameters, IdentifierManager identifierManager){
         this.artDecorProject = new ArtDecorProject(runParameters);
         this.codebookManager = codebookManager;
+        this.runParameters = runParameters;
+        this.identifierManager = identifierManager;
+        monitorCodeSystemLookups();
     }
 
-    public void transformCodebooks(){
+    /**
+     * transform all codebooks
+     * @throws Exception the data type of one or more concepts was changed, or the run was cancelled
+     */
+    public void transformCodebooks() throws Exception {
+        long startTime = System.nanoTime();
         transformToArtDecor();
+        validateDataTypes();
         buildConceptHierarchy();
+        logCodeSystemLookups();
+        codebookManager.getRunStatistics().addPhase("transform", startTime);
+    }
+
+    private void monitorCodeSystemLookups(){
+        codebookManager.getConversionMonitor().setCodeSystemLookups(identifierManager::getCodeSystemCacheHits, identifierManager::getCodeSystemCacheMisses);
+    }
+
+    private void logCodeSystemLookups(){
+        logger.log(Level.DEBUG, "Codesystem lookups: {} reused a resolved name, {} resolved a name",
+                identifierManager.getCodeSystemCacheHits(), identifierManager.getCodeSystemCacheMisses());
     }
 
     /**
@@ -68,35 +125,60 @@ public class CodebookToArtDecorConvertor {
      */
     private void transformToArtDecor(){
         Set<Integer> versions = codebookManager.getCodebookVersions();
+        codebookManager.getConversionMonitor().startPhase("transform", versions.size());
         for(int version:versions){
-            artDecorChangedValueSetMap = new HashMap<>();
-
-            // retrieve the codebook for the version
-            Codebook codebook = codebookManager.getCodebook(version);
-
-            // tell the identifier to use a different date to generate its conceptlist identifiers
-            identifierManager.setConceptListId(codebook.getEffectiveDateAsDate());
-
-            // create the dataset based on the codebook
-            generateArtDecorDataSet(codebook);
+            codebookManager.getConversionMonitor().checkCancelled();
+            // retrieve the codebook for the version and create the dataset based on it
+            artDecorDatasetList.add(transformCodebook(codebookManager.getCodebook(version)));
+            codebookManager.getConversionMonitor().stepDone();
+        }
+    }
 
-            // add the changed ValueSets to the "current" valuesets
-            artDecorValueSetMap.putAll(artDecorChangedValueSetMap);
+    /**
+     * transform a single codebook, comparing it against the concepts and valuesets of the previous versions
+     * @param codebook the codebook
+     * @return the dataset of the codebook
+     */
+    private ArtDecorDataset transformCodebook(Codebook codebook){
+        RunStatistics.VersionStatistics versionStatistics = codebookManager.getRunStatistics().startVersion(codebook.getDatasetVersionLabel());
+        codebookManager.getConversionMonitor().startVersion(codebook.getDatasetVersionLabel());
+        artDecorChangedValueSetMap = new HashMap<>();
+
+        // tell the identifier to use a different date to generate its conceptlist identifiers
+        identifierManager.setConceptListId(codebook.getEffectiveDateAsDate());
+
+        // create the dataset based on the codebook
+        ArtDecorDataset artDecorDataset = generateArtDecorDataSet(codebook, versionStatistics);
+
+        // add the changed ValueSets to the "current" valuesets
+        artDecorReplacedValueSetList = new ArrayList<>();
+        for(Map.Entry<String, ArtDecorValueSet> entry:artDecorChangedValueSetMap.entrySet()){
+            ArtDecorValueSet previousArtDecorValueSet = artDecorValueSetMap.get(entry.getKey());
+            if(previousArtDecorValueSet!=entry.getValue()){
+                artDecorReplacedValueSetList.add(previousArtDecorValueSet);
+            }
         }
+        artDecorValueSetMap.putAll(artDecorChangedValueSetMap);
+        versionStatistics.finish();
+        return artDecorDataset;
     }
 
     /**
      * generate artdecor dataset for a single codebook
      * @param codebook
+     * @param versionStatistics    counts the new, same and changed concepts and valuesets of the codebook
+     * @return the dataset
      */
-    private void generateArtDecorDataSet(Codebook codebook){
-        // create a new artdecor dataset and store it
+    private ArtDecorDataset generateArtDecorDataSet(Codebook codebook, RunStatistics.VersionStatistics versionStatistics){
+        // create a new artdecor dataset
         ArtDecorDataset artDecorDataset = codebook.createArtDecorDataset(identifierManager.getNextDataSetId());
-        artDecorDatasetList.add(artDecorDataset);
+        int version = codebook.getDatasetVersionLabel();
+        ConversionMonitor conversionMonitor = codebookManager.getConversionMonitor();
 
         // retrieve all concepts stored in the codebook and loop over them
         Collection<Concept> allConcepts = codebook.getAllConcepts();
         for(Concept concept:allConcepts){
+            conversionMonitor.checkCancelled();
             // check whether the concept already existed in a previous dataset
             // if not, create a art-decor concept identifier for it and store it, allowing it to be
             // reused by later dataset versions
@@ -107,7 +189,7 @@ public class CodebookToArtDecorConvertor {
             // etc.
             String conceptId = concept.getId();
             if(!conceptIdToArtDecorConceptIdMap.containsKey(conceptId)){
-                conceptIdToArtDecorConceptIdMap.put(conceptId, identifierManager.getNextConceptId());
+                conceptIdToArtDecorConceptIdMap.put(conceptId, identifierManager.getConceptId(conceptId));
             }
 
             // retrieve the art-decor concept id and transform the codebook concept into a art-decor concept
@@ -123,11 +205,17 @@ public class CodebookToArtDecorConvertor {
 
             // check whether another art-decor concept already exists with this id and set parameters for
             // possible inheritance
-            compareToPreviousConcept(conceptId, artDecorConcept);
+            compareToPreviousConcept(conceptId, artDecorConcept, version);
+            versionStatistics.addConcept(artDecorConcept.getXMLConceptTypeStatus());
+            conversionMonitor.addConcept();
+            if(concept.hasConceptOptions()) {
+                versionStatistics.addValueSet(artDecorConcept.getXMLConceptListTypeStatus());
+            }
 
             // add this concept to the terminology
             addConceptTerminology(concept, artdecorConceptId);
         }
+        return artDecorDataset;
     }
 
     /**
@@ -135,13 +223,19 @@ public class CodebookToArtDecorConvertor {
      * possible inheritance
      * @param conceptId       the concept identifier
      * @param artDecorConcept the newly created art-decor concept
+     * @param version         version of the codebook of the concept
      */
-    private void compareToPreviousConcept(String conceptId, ArtDecorConcept artDecorConcept){
+    private void compareToPreviousConcept(String conceptId, ArtDecorConcept artDecorConcept, int version){
         if(artDecorConceptMap.containsKey(conceptId)){
             // retrieve the previous art-decor concept with the same id and compare to previous
             ArtDecorConcept previousArtDecorConcept = artDecorConceptMap.get(conceptId);
 
             if(!artDecorConcept.identicalTo(previousArtDecorConcept)){
+                if(artDecorConcept.dataTypeChanged()){
+                    codebookManager.getDiagnostics().report(Diagnostics.Code.DATA_TYPE_CHANGED, String.valueOf(version), "Codebook", 0, conceptId,
+                            conceptId, previousArtDecorConcept.getValueDomainType(), artDecorConcept.getValueDomainType());
+                    dataTypeViolationList.add(conceptId+" (version "+version+")");
+                }
                 // if things are different, set the current concept as the one to check against next time
                 // this means that you inherit from the last changed concept. So if there are three codebooks/datasets:
                 // item1 did not change in set2, it will inherit from set1 and set3 will also inherit (or specialise) from set1
@@ -155,6 +249,20 @@ public class CodebookToArtDecorConvertor {
         }
     }
 
+    /**
+     * stop the conversion if the data type of a concept was changed. All changed concepts of all versions are reported
+     * at once, so they can all be fixed before the next run.
+     * In transformCodebooks this happens before any output is written. In transformAndWriteOutput the versions before
+     * the first violation are already streamed to the temporary output file; that file is then deleted, so output.xml
+     * of the previous run is kept
+     * @throws Exception the data type of one or more concepts was changed
+     */
+    private void validateDataTypes() throws Exception {
+        if(!dataTypeViolationList.isEmpty()){
+            throw new Exception("Fatal Error: The data type was changed for "+dataTypeViolationList.size()+" concept(s), which is not allowed. Please fix. Violating conceptIds="+String.join(", ", dataTypeViolationList));
+        }
+    }
+
     /**
      * add the concept's information to the terminology
      * @param concept           the concept in codebook format
@@ -171,7 +279,7 @@ public class CodebookToArtDecorConvertor {
                         codeSystemName,
                         concept.getDescription_code(),
                         effectiveDate,
-                        IdentifierManager.getIdentifierManager().getCodeSystemId(codeSystemName, effectiveDate)
+                        identifierManager.getCodeSystemId(codeSystemName, effectiveDate)
                 );
         artDecorTerminologyConceptList.add(artDecorTerminologyConcept);
     }
@@ -192,7 +300,7 @@ public class CodebookToArtDecorConvertor {
      * @param artDecorConcept the concept in artdecor format
      */
     private void handleConceptOptions(Concept concept, ArtDecorConcept artDecorConcept){
-        ArtDecorValueSet artDecorValueSet = concept.generateArtDecorValueSet();
+        ArtDecorValueSet artDecorValueSet = concept.generateArtDecorValueSet(identifierManager);
         String conceptId = concept.getId();
         String effectiveDate = concept.getEffectiveDate();
 
@@ -218,7 +326,7 @@ public class CodebookToArtDecorConvertor {
      */
     private void handleNewValueSet(ArtDecorConcept artDecorConcept, ArtDecorValueSet artDecorValueSet, String conceptId, String effectiveDate, String codeListRef){
         // create an id for the valueset and tell the concept that the status of the valueset is NEW
-        String artdecorValueSetId = identifierManager.getNextValueSetId();
+        String artdecorValueSetId = identifierManager.getValueSetId(codeListRef);
         artDecorConcept.setXMLConceptListTypeStatus("NEW");
         // create associations for the valueset and for the conceptlist
         addValueSetAssociations(artDecorValueSet, artdecorValueSetId, codeListRef);
@@ -303,94 +411,457 @@ public class CodebookToArtDecorConvertor {
 
     }
 
-    private String generateStartXML(){
-        return ("<?xml-model\n" +
-                "href=\"http://art-decor.org/ADAR/rv/DECOR.xsd\" type=\"application/xml\" schematypens=\"http://purl.oclc.org/dsdl/schematron\"\n" +
-                "?>\n" +
-                "<decor xmlns:cda=\"urn:hl7-org:v3\" xmlns:hl7=\"urn:hl7-org:v3\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" " +
-                "xsi:noNamespaceSchemaLocation=\"http://art-decor.org/ADAR/rv/DECOR.xsd\" repository=\"false\" private=\"true\" " +
-                "cda:dummy-1=\"urn:hl7-org:v3\" hl7:dummy-2=\"urn:hl7-org:v3\" xsi:dummy-1=\"http://www.w3.org/2001/XMLSchema-instance\">\n");
+    private void writeStartXML(Writer writer) throws IOException {
+        writer.append("<?xml-model\n")
+                .append("href=\"http://art-decor.org/ADAR/rv/DECOR.xsd\" type=\"application/xml\" schematypens=\"http://purl.oclc.org/dsdl/schematron\"\n")
+                .append("?>\n")
+                .append("<decor xmlns:cda=\"urn:hl7-org:v3\" xmlns:hl7=\"urn:hl7-org:v3\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" ")
+                .append("xsi:noNamespaceSchemaLocation=\"http://art-decor.org/ADAR/rv/DECOR.xsd\" repository=\"false\" private=\"true\" ")
+                .append("cda:dummy-1=\"urn:hl7-org:v3\" hl7:dummy-2=\"urn:hl7-org:v3\" xsi:dummy-1=\"http://www.w3.org/2001/XMLSchema-instance\">\n");
     }
 
-    private String generateProjectXML(){
-        return artDecorProject.toXML();
+    private void writeProjectXML(Writer writer) throws IOException {
+        artDecorProject.writeXML(writer);
     }
 
-    private String generateDatasetsXML() throws Exception{
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("<datasets>\n");
+    private void writeDatasetsXML(Writer writer) throws Exception{
+        writer.append("<datasets>\n");
         for(ArtDecorDataset artDecorDataset:artDecorDatasetList){
-            stringBuilder.append(artDecorDataset.toXML());
+            codebookManager.getConversionMonitor().checkCancelled();
+            artDecorDataset.writeXML(writer);
+            codebookManager.getConversionMonitor().stepDone();
         }
-        stringBuilder.append("</datasets>\n");
-        return stringBuilder.toString();
+        writer.append("</datasets>\n");
     }
 
-    private String generateScenarioXML(){
-        return "<scenarios>\n" +
-                "<actors/>\n" +
-                "</scenarios>\n";
+    private void writeScenarioXML(Writer writer) throws IOException {
+        writer.append("<scenarios>\n")
+                .append("<actors/>\n")
+                .append("</scenarios>\n");
     }
 
-    private String generateIDsXML(){
-        String outputXML = "<ids>\n";
-        outputXML += identifierManager.getProjectIdsXML();
-        outputXML += "</ids>\n";
-        return outputXML;
+    private void writeIDsXML(Writer writer) throws IOException {
+        writer.append("<ids>\n");
+        identifierManager.writeProjectIdsXML(writer);
+        writer.append("</ids>\n");
     }
 
-    private String generateTerminologyAssessmentXML(){
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("<terminology>\n");
+    private void writeTerminologyAssessmentXML(Writer writer) throws IOException {
+        writer.append("<terminology>\n");
         for(ArtDecorTerminologyValueSet artDecorTerminologyValueSet:artDecorTerminologyValueSetList){
-            stringBuilder.append(artDecorTerminologyValueSet.toXML());
+            artDecorTerminologyValueSet.writeXML(writer);
         }
 
         for(ArtDecorTerminologyConcept artDecorTerminologyConcept:artDecorTerminologyConceptList){
-            stringBuilder.append(artDecorTerminologyConcept.toXML());
+            artDecorTerminologyConcept.writeXML(writer);
         }
 
-        stringBuilder.append(identifierManager.getCodeSystemXML());
+        identifierManager.writeCodeSystemXML(writer);
 
-        stringBuilder.append(generateValueSetXML());
+        writeValueSetXML(writer);
 
-        stringBuilder.append("</terminology>");
-        return stringBuilder.toString();
+        writer.append("</terminology>");
     }
 
-    private String generateValueSetXML(){
-        StringBuilder stringBuilder = new StringBuilder();
+    private void writeValueSetXML(Writer writer) throws IOException {
         for(ArtDecorValueSet artDecorValueSet:artDecorValueSetList){
-            stringBuilder.append(artDecorValueSet.toXML());
+            artDecorValueSet.writeXML(writer);
         }
-        return stringBuilder.toString();
     }
 
-    private String generateFinishXML(){
-        return "<rules/>\n" +
-               "<issues notifier=\"on\"/>\n" +
-               "</decor>\n";
+    private void writeFinishXML(Writer writer) throws IOException {
+        writer.append("<rules/>\n")
+                .append("<issues notifier=\"on\"/>\n")
+                .append("</decor>\n");
+    }
+
+    /**
+     * write all sections of the art-decor xml, one object at a time
+     * @param writer            the writer to write to
+     * @param outputSections    counts the bytes of each section
+     * @throws Exception
+     */
+    private void writeXML(Writer writer, OutputSections outputSections) throws Exception{
+        writeStartXML(writer);
+        writeProjectXML(writer);
+        outputSections.end(writer, "project");
+        writeDatasetsXML(writer);
+        outputSections.end(writer, "datasets");
+        writeScenarioXML(writer);
+        outputSections.end(writer, "scenarios");
+        writeIDsXML(writer);
+        outputSections.end(writer, "ids");
+        writeTerminologyAssessmentXML(writer);
+        outputSections.end(writer, "terminology");
+        writeFinishXML(writer);
+        outputSections.end(writer, "rules");
     }
 
     public void showOutput() throws Exception{
-        System.out.println(generateStartXML());
-        System.out.println(generateProjectXML());
-        System.out.println(generateDatasetsXML());
-        System.out.println(generateScenarioXML());
-        System.out.println(generateIDsXML());
-        System.out.println(generateTerminologyAssessmentXML());
-        System.out.println(generateFinishXML());
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        writeXML(writer, new OutputSections(null, null));
+        writer.flush();
     }
 
+    /**
+     * write the art-decor xml to a file. The objects are written straight to a buffered UTF-8 stream, so no
+     * section is ever held in memory as a whole. The xml is written to a temporary file, which replaces the output
+     * file once it is complete, so a failed or cancelled run keeps the output of the previous run
+     * @param fileName name of the output file
+     * @throws Exception
+     */
     public void writeOutput(String fileName) throws Exception{
-        try (BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(fileName))) {
-            bufferedWriter.write(generateStartXML());
-            bufferedWriter.write(generateProjectXML());
-            bufferedWriter.write(generateDatasetsXML());
-            bufferedWriter.write(generateScenarioXML());
-            bufferedWriter.write(generateIDsXML());
-            bufferedWriter.write(generateTerminologyAssessmentXML());
-            bufferedWriter.write(generateFinishXML());
+        long startTime = System.nanoTime();
+        identifierManager.storeIdentifiers();
+        Path outputPath = Paths.get(fileName).toAbsolutePath();
+        Path tempFile = getTempOutputPath(outputPath);
+        try {
+            CountingOutputStream countingOutputStream = new CountingOutputStream(Files.newOutputStream(tempFile));
+            codebookManager.getConversionMonitor().startPhase("write", artDecorDatasetList.size());
+            codebookManager.getConversionMonitor().setOutput(countingOutputStream);
+            try (Writer writer = createOutputWriter(countingOutputStream)) {
+                writeXML(writer, new OutputSections(countingOutputStream, codebookManager.getRunStatistics()));
+            }
+            Files.move(tempFile, outputPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e){
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        codebookManager.getRunStatistics().addPhase("write", startTime);
+    }
+
+    /**
+     * the temporary file to which the output is written before it replaces the output file. Unlike a file from
+     * Files.createTempFile, it is created with the default permissions, which the output file then keeps
+     * @param outputPath    the output file
+     * @return the temporary file next to the output file
+     */
+    private static Path getTempOutputPath(Path outputPath){
+        return outputPath.resolveSibling(outputPath.getFileName()+".tmp");
+    }
+
+    /**
+     * transform the codebooks and write the art-decor xml to a file, one version at a time. The dataset of a version
+     * only depends on that version and the ones before it, so each codebook is read, transformed and written before
+     * the next one is read, after which the codebook and the dataset are released. The memory use therefore depends
+     * on the largest version instead of on the number of versions. The terminology of each version is stored in a
+     * file as well, and the files are copied into the terminology at the end (see StreamedTerminology).
+     * The next versions are read while a version is transformed (see CodebookManager.loadCodebook).
+     * Once the data type of a concept turns out to be changed, the remaining versions are only transformed, so all
+     * changed concepts are reported, after which the conversion fails.
+     * If a snapshot directory is set in the runparameters, the state is stored after each version, and the
+     * conversion resumes after the last version which did not change since the previous run (see ConversionSnapshots)
+     * As in writeOutput, the xml is written to a temporary file which only replaces the output file once it is
+     * complete.
+     * This replaces transformCodebooks and writeOutput; the codebookmanager should come from
+     * CodebookManager.indexCodebooks
+     * @param fileName name of the output file
+     * @throws Exception
+     */
+    public void transformAndWriteOutput(String fileName) throws Exception{
+        long startTime = System.nanoTime();
+        ConversionSnapshots conversionSnapshots = null;
+        Integer resumeVersion = null;
+        streamedTerminology = new StreamedTerminology();
+        if(runParameters.useSnapshots()){
+            conversionSnapshots = new ConversionSnapshots(runParameters, codebookManager.getCodebookFiles());
+            resumeVersion = conversionSnapshots.findResumeVersion();
+            if(resumeVersion!=null && restoreState(conversionSnapshots.getStatePath(resumeVersion))){
+                logger.log(Level.INFO, "Resuming the conversion after version {}", resumeVersion);
+            }
+            else {
+                resumeVersion = null;
+            }
+        }
+
+        Path outputPath = Paths.get(fileName).toAbsolutePath();
+        Path tempFile = getTempOutputPath(outputPath);
+        // without snapshots, the terminology of the versions is stored in a temporary directory
+        Path terminologyDirectory = conversionSnapshots==null ? Files.createTempDirectory(outputPath.getParent(), "terminology") : null;
+        IntFunction<Path> terminologyPaths = conversionSnapshots!=null ? conversionSnapshots::getTerminologyPath :
+                version -> terminologyDirectory.resolve(version+".xml");
+        try {
+            writeOutputVersions(tempFile, conversionSnapshots, resumeVersion, terminologyPaths);
+            Files.move(tempFile, outputPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e){
+            Files.deleteIfExists(tempFile);
+            throw e;
+        } finally {
+            if(terminologyDirectory!=null){
+                deleteDirectory(terminologyDirectory);
+            }
+        }
+        if(conversionSnapshots!=null){
+            conversionSnapshots.evictUnused();
+        }
+        codebookManager.getRunStatistics().addPhase("convert", startTime);
+    }
+
+    /**
+     * transform the versions and write the art-decor xml, see transformAndWriteOutput
+     * @param file                   the file to write to
+     * @param conversionSnapshots    the snapshots of the previous run; null if snapshots are not used
+     * @param resumeVersion          the last version of which the snapshot is used; null to transform all versions
+     * @param terminologyPaths       the file which stores the terminology of each version
+     * @throws Exception
+     */
+    private void writeOutputVersions(Path file, ConversionSnapshots conversionSnapshots, Integer resumeVersion, IntFunction<Path> terminologyPaths) throws Exception {
+        CountingOutputStream countingOutputStream = new CountingOutputStream(Files.newOutputStream(file));
+        ConversionMonitor conversionMonitor = codebookManager.getConversionMonitor();
+        conversionMonitor.startPhase("convert", codebookManager.getCodebookVersions().size());
+        conversionMonitor.setOutput(countingOutputStream);
+        try (Writer writer = createOutputWriter(countingOutputStream)) {
+            OutputSections outputSections = new OutputSections(countingOutputStream, codebookManager.getRunStatistics());
+            writeStartXML(writer);
+            writeProjectXML(writer);
+            outputSections.end(writer, "project");
+            writer.append("<datasets>\n");
+            try {
+                for (int version : codebookManager.getCodebookVersions()) {
+                    conversionMonitor.checkCancelled();
+                    if(resumeVersion!=null && version<=resumeVersion){
+                        // the dataset is the same as in the previous run
+                        copyFile(conversionSnapshots.getDatasetPath(version), writer);
+                        conversionMonitor.stepDone();
+                        continue;
+                    }
+                    ArtDecorDataset artDecorDataset = transformCodebook(codebookManager.loadCodebook(version));
+                    if(!dataTypeViolationList.isEmpty()){
+                        // the conversion fails, so the remaining versions are only transformed to find all violations,
+                        // and no dataset or snapshot is stored
+                        clearTerminology();
+                        conversionMonitor.stepDone();
+                        continue;
+                    }
+                    artDecorDataset.connectConcepts();
+                    if(conversionSnapshots!=null){
+                        Path datasetPath = conversionSnapshots.getDatasetPath(version);
+                        saveDataset(artDecorDataset, datasetPath);
+                        copyFile(datasetPath, writer);
+                    }
+                    else {
+                        artDecorDataset.writeXML(writer);
+                    }
+                    artDecorDataset.disconnectConcepts();
+                    streamedTerminology.writeVersion(version, terminologyPaths.apply(version), artDecorTerminologyValueSetList,
+                            artDecorTerminologyConceptList, artDecorValueSetList, artDecorReplacedValueSetList);
+                    clearTerminology();
+                    if(conversionSnapshots!=null){
+                        // the state refers to the new identifiers, so they are registered first
+                        identifierManager.storeIdentifiers();
+                        saveState(conversionSnapshots.getStatePath(version));
+                    }
+                    conversionMonitor.stepDone();
+                }
+            } finally {
+                codebookManager.stopReading();
+            }
+            // a violation leaves the temporary output file incomplete; transformAndWriteOutput deletes it
+            validateDataTypes();
+            writer.append("</datasets>\n");
+            outputSections.end(writer, "datasets");
+            logCodeSystemLookups();
+            identifierManager.storeIdentifiers();
+            writeScenarioXML(writer);
+            outputSections.end(writer, "scenarios");
+            writeIDsXML(writer);
+            outputSections.end(writer, "ids");
+            writeStreamedTerminologyXML(writer, terminologyPaths);
+            outputSections.end(writer, "terminology");
+            writeFinishXML(writer);
+            outputSections.end(writer, "rules");
+        }
+    }
+
+    /**
+     * release the terminology of the version which was transformed last
+     */
+    private void clearTerminology(){
+        artDecorTerminologyValueSetList.clear();
+        artDecorTerminologyConceptList.clear();
+        artDecorValueSetList.clear();
+    }
+
+    /**
+     * write the terminology stored by writeOutputVersions, in the same order as writeTerminologyAssessmentXML
+     * @param writer              the writer to write to
+     * @param terminologyPaths    the file which stores the terminology of each version
+     * @throws IOException
+     */
+    private void writeStreamedTerminologyXML(Writer writer, IntFunction<Path> terminologyPaths) throws IOException {
+        writer.append("<terminology>\n");
+        streamedTerminology.writeAssociationsXML(writer, terminologyPaths);
+        identifierManager.writeCodeSystemXML(writer);
+        streamedTerminology.writeValueSetXML(writer, terminologyPaths);
+        writer.append("</terminology>");
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * store the xml of a dataset
+     * @param artDecorDataset    the dataset
+     * @param datasetPath        the file to store it in
+     * @throws Exception
+     */
+    private void saveDataset(ArtDecorDataset artDecorDataset, Path datasetPath) throws Exception {
+        // write to a temporary file first, so no partial snapshot is ever used
+        Path tempFile = Files.createTempFile(datasetPath.getParent(), "dataset", ".tmp");
+        try (Writer writer = createOutputWriter(tempFile.toString())) {
+            artDecorDataset.writeXML(writer);
+        }
+        Files.move(tempFile, datasetPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * store the state which the next versions are compared against, which is the state after the version which was
+     * transformed last. The objects are written as one graph, so objects which are referred to from several places,
+     * such as the valuesets, are still shared when the state is restored
+     * @param statePath    the file to store the state in
+     * @throws IOException
+     */
+    private void saveState(Path statePath) throws IOException {
+        Path tempFile = Files.createTempFile(statePath.getParent(), "state", ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeObject(artDecorConceptMap);
+            out.writeObject(artDecorValueSetMap);
+            out.writeObject(conceptIdToArtDecorConceptListIdMap);
+            out.writeObject(conceptIdToArtDecorConceptIdMap);
+            out.writeObject(streamedTerminology);
+            out.writeObject(identifierManager);
+        }
+        Files.move(tempFile, statePath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * restore the state stored by saveState
+     * @param statePath    the file which contains the state
+     * @return false if the state could not be read, in which case the conversion has to start at the first version
+     */
+    @SuppressWarnings("unchecked")
+    private boolean restoreState(Path statePath){
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(statePath)))) {
+            Map<String, ArtDecorConcept> restoredConceptMap = (Map<String, ArtDecorConcept>) in.readObject();
+            Map<String, ArtDecorValueSet> restoredValueSetMap = (Map<String, ArtDecorValueSet>) in.readObject();
+            Map<String, String> restoredConceptListIdMap = (Map<String, String>) in.readObject();
+            Map<String, String> restoredConceptIdMap = (Map<String, String>) in.readObject();
+            StreamedTerminology restoredStreamedTerminology = (StreamedTerminology) in.readObject();
+            IdentifierManager restoredIdentifierManager = (IdentifierManager) in.readObject();
+
+            artDecorConceptMap = restoredConceptMap;
+            artDecorValueSetMap = restoredValueSetMap;
+            conceptIdToArtDecorConceptListIdMap = restoredConceptListIdMap;
+            conceptIdToArtDecorConceptIdMap = restoredConceptIdMap;
+            streamedTerminology = restoredStreamedTerminology;
+            restoredIdentifierManager.setIdentifierRegistry(identifierManager.getIdentifierRegistry());
+            identifierManager = restoredIdentifierManager;
+            monitorCodeSystemLookups();
+            return true;
+        } catch (IOException | ClassNotFoundException | ClassCastException e){
+            logger.log(Level.WARN, "Problem restoring the snapshot {}, converting all versions: {}", statePath.getFileName(), e.getMessage());
+            return false;
+        }
+    }
+
+    private static void copyFile(Path path, Writer writer) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            char [] buffer = new char[8192];
+            int read;
+            while((read = reader.read(buffer))!=-1){
+                writer.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * check an output file against the output of a full conversion, which reads and transforms all versions without
+     * using snapshots or cached codebooks. The full conversion is shown as further phases of the run's monitor, so it
+     * does not replace the run's MBean and can be cancelled like the run itself
+     * @param runParameters        parameters used for the run which created the output file
+     * @param fileName             name of the output file
+     * @param conversionMonitor    the monitor of the run which created the output file
+     * @return true if the output file is the same as the output of the full conversion
+     * @throws Exception
+     */
+    public static boolean verifyOutput(RunParameters runParameters, String fileName, ConversionMonitor conversionMonitor) throws Exception {
+        String snapshotDirectory = runParameters.getSnapshotDirectory();
+        String codebookCacheDirectory = runParameters.getCodebookCacheDirectory();
+        Path outputFile = Paths.get(fileName);
+        Path verifyFile = Files.createTempFile(outputFile.toAbsolutePath().getParent(), "verify", ".xml");
+        try {
+            runParameters.setSnapshotDirectory(null);
+            runParameters.setCodebookCacheDirectory(null);
+            CodebookToArtDecorConvertor codebookToArtDecorConvertor = new CodebookToArtDecorConvertor(CodebookManager.readCodebooks(runParameters, conversionMonitor), runParameters);
+            codebookToArtDecorConvertor.transformCodebooks();
+            codebookToArtDecorConvertor.writeOutput(verifyFile.toString());
+            return sameContents(outputFile, verifyFile);
+        } finally {
+            runParameters.setSnapshotDirectory(snapshotDirectory);
+            runParameters.setCodebookCacheDirectory(codebookCacheDirectory);
+            Files.deleteIfExists(verifyFile);
+        }
+    }
+
+    private static boolean sameContents(Path file, Path otherFile) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file));
+             InputStream otherIn = new BufferedInputStream(Files.newInputStream(otherFile))) {
+            long offset = 0;
+            int b;
+            while((b = in.read())!=-1){
+                if(b!=otherIn.read()){
+                    logger.log(Level.ERROR, "The output differs from the full conversion at byte {}", offset);
+                    return false;
+                }
+                offset++;
+            }
+            if(otherIn.read()!=-1){
+                logger.log(Level.ERROR, "The output is shorter than the output of the full conversion");
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private Writer createOutputWriter(String fileName) throws IOException {
+        return createOutputWriter(new FileOutputStream(fileName));
+    }
+
+    private Writer createOutputWriter(OutputStream outputStream){
+        return new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), outputBufferSize);
+    }
+
+    /**
+     * counts the bytes written for each section of the output. The writer is flushed at the end of a section, so
+     * the bytes of the section have reached the counting stream
+     */
+    private static class OutputSections {
+        private CountingOutputStream countingOutputStream;
+        private RunStatistics runStatistics;
+        private long sectionStart = 0;
+
+        /**
+         * @param countingOutputStream    the stream under the writer; null if the bytes are not counted
+         * @param runStatistics           receives the bytes of each section
+         */
+        OutputSections(CountingOutputStream countingOutputStream, RunStatistics runStatistics){
+            this.countingOutputStream = countingOutputStream;
+            this.runStatistics = runStatistics;
+        }
+
+        void end(Writer writer, String section) throws IOException {
+            if(countingOutputStream==null){
+                return;
+            }
+            writer.flush();
+            runStatistics.addSection(section, countingOutputStream.getCount()-sectionStart);
+            sectionStart = countingOutputStream.getCount();
         }
     }
 }
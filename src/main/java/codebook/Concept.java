@@ -2,14 +2,13 @@ package codebook;
 
 import artdecor.ArtDecorConcept;
 import artdecor.ArtDecorValueSet;
-import org.apache.logging.log4j.Level;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.apache.poi.ss.usermodel.Row;
 import settings.IdentifierManager;
 import settings.Statics;
-import utils.ExcelUtils;
+import utils.Diagnostics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -18,7 +17,10 @@ import java.util.regex.Pattern;
  * Representation of a concept as read in the excel
  */
 class Concept {
-    private static final Logger logger = LogManager.getLogger(Concept.class.getName());
+    // how the options of a concept are stored in the codebook cache
+    private static final byte noOptions = 0;
+    private static final byte writtenOptions = 1;
+    private static final byte sharedOptions = 2;
 
     private String effectiveDate;
     private String id;
@@ -48,6 +50,9 @@ class Concept {
         handleProperties(properties);
     }
 
+    private Concept(){
+    }
+
     public String getId() {
         return id;
     }
@@ -56,52 +61,32 @@ class Concept {
         return code;
     }
 
-    // test me! and do something similar for the concepts in the codebook.
-    private boolean isValidEntry(String codeListEntryCodesystem, String codeListEntryCode, String codeListEntryDescription_code, String codelist_ref){
-        boolean isValidEntry=true;
+    /**
+     * use the options of a codelist for this concept. The codelist's options are shared with the other concepts
+     * referring to the same codelist, so they are not copied
+     * @param codeList the parsed codelist
+     * @param diagnostics collects the problems found
+     * @param row the row of the concept in the codebook sheet
+     */
+    void setCodeList(CodeList codeList, Diagnostics diagnostics, int row){
+        // a codesystem typo in the concept invalidates all its codelist entries
         if(Statics.mayBeTypo(codesystem)){
-            logger.log(Level.WARN, "codebook version: {}; Codelist Entry: Codesystem found: {} in sheet {}. Did you mean {}?", versionLabel, codesystem, codelist_ref, Statics.getTypoValue(codesystem));
-            isValidEntry = false;
-        }
-
-        // first check whether one of the mandatory fields is empty
-        if(codeListEntryCode.equalsIgnoreCase("")){
-            logger.log(Level.ERROR, "codebook version: {}; Codelist Entry: Mandatory code missing in codelist {} for concept {}", versionLabel, codelist_ref, id);
-            isValidEntry = false;
-        }
-        if(codeListEntryCodesystem.equalsIgnoreCase("")){
-            logger.log(Level.ERROR, "codebook version: {}; Codelist Entry: Mandatory codesystem missing in codelist {} for concept {}", versionLabel, codelist_ref, id);
-            isValidEntry = false;
-        }
-        if(codeListEntryDescription_code.equalsIgnoreCase("")){
-            logger.log(Level.ERROR, "codebook version: {}; Codelist Entry: Mandatory code description missing in codelist {} for concept {}", versionLabel, codelist_ref, id);
-            isValidEntry = false;
-        }
-        return isValidEntry;
-    }
-
-    void addCodeListEntry(Row row, List<String> codelistHeaderList, Set<String> languages, String codelist_ref){
-        String codeListEntryCode = ExcelUtils.getValue(row, "code", codelistHeaderList);
-        String codeListEntryDescription_code = ExcelUtils.getValue(row, "description_code", codelistHeaderList);
-        String codeListEntryCodesystem = ExcelUtils.getValue(row, "codesystem", codelistHeaderList);
-
-        if(isValidEntry(codeListEntryCodesystem, codeListEntryCode, codeListEntryDescription_code, codelist_ref)){
-            ConceptOption conceptOption = new ConceptOption(codeListEntryCodesystem, codeListEntryCode, codeListEntryDescription_code);
-            for (String language : languages) {
-                String languageDescription = ExcelUtils.getValue(row, "description_" + language, codelistHeaderList);
-                String languageValue = ExcelUtils.getValue(row, "value_" + language, codelistHeaderList);
-                LanguageConceptOptions languageConceptOptions = new LanguageConceptOptions(language, languageValue, languageDescription);
-                conceptOption.addLanguageConceptOptions(language, languageConceptOptions);
-            }
-            conceptOptionsMap.put(conceptOption.code, conceptOption);
+            diagnostics.report(Diagnostics.Code.CODELIST_CODESYSTEM_TYPO, versionLabel, "Codebook", row, id, codesystem, codeList.getCodelistRef(), Statics.getTypoValue(codesystem));
+            return;
         }
+        conceptOptionsMap = codeList.getConceptOptionsMap();
     }
 
-    ArtDecorValueSet generateArtDecorValueSet(){
+    /**
+     * create the valueset of the concept's options
+     * @param identifierManager the identifier manager of the conversion, which provides the codesystem ids
+     * @return the valueset
+     */
+    ArtDecorValueSet generateArtDecorValueSet(IdentifierManager identifierManager){
         ArtDecorValueSet artDecorValueSet = new ArtDecorValueSet(id, id, versionLabel, effectiveDate);
         for(ConceptOption conceptOption:conceptOptionsMap.values()){
             String codesystemName = conceptOption.codesystemName;
-            String codesystemId = IdentifierManager.getIdentifierManager().getCodeSystemId(codesystemName, effectiveDate);
+            String codesystemId = identifierManager.getCodeSystemId(codesystemName, effectiveDate);
             boolean addToExceptionList = Statics.isExceptionCodeList(codesystemId);
             artDecorValueSet.addConceptOption(conceptOption.code,
                     codesystemId,
@@ -109,7 +94,7 @@ class Concept {
                     conceptOption.description_code,
                     addToExceptionList);
 
-            conceptOption.addValueSetDesignations(artDecorValueSet, addToExceptionList);
+            conceptOption.addValueSetDesignations(artDecorValueSet);
         }
 
         for(LanguageConcept languageConcept:languageConceptMap.values()){
@@ -163,6 +148,93 @@ class Concept {
         return conceptOptionsMap.size()>0;
     }
 
+    /**
+     * write the concept in the format of the codebook cache
+     * @param out                 the output
+     * @param writtenCodeLists    the codelists of which the options were written already; for those only the
+     *                            reference is written
+     * @throws IOException
+     */
+    void writeCache(DataOutput out, Set<String> writtenCodeLists) throws IOException {
+        for(String value:new String[]{effectiveDate, id, codesystem, code, description_code, codelist_ref, parent, data_type, versionLabel, statusCode}){
+            CodebookCache.writeString(out, value);
+        }
+        out.writeInt(languageConceptMap.size());
+        for(LanguageConcept languageConcept:languageConceptMap.values()){
+            CodebookCache.writeString(out, languageConcept.language);
+            CodebookCache.writeString(out, languageConcept.description);
+        }
+        out.writeInt(propertiesMap.size());
+        for(Map.Entry<String, String> entry:propertiesMap.entrySet()){
+            CodebookCache.writeString(out, entry.getKey());
+            CodebookCache.writeString(out, entry.getValue());
+        }
+
+        if(conceptOptionsMap.isEmpty()){
+            out.writeByte(noOptions);
+        }
+        else if(writtenCodeLists.add(codelist_ref)){
+            out.writeByte(writtenOptions);
+            out.writeInt(conceptOptionsMap.size());
+            for(ConceptOption conceptOption:conceptOptionsMap.values()){
+                conceptOption.writeCache(out);
+            }
+        }
+        else{
+            out.writeByte(sharedOptions);
+        }
+    }
+
+    /**
+     * read a concept which was written by writeCache
+     * @param in                the input
+     * @param readCodeLists     the options of the codelists read so far, by codelist reference
+     * @return the concept
+     * @throws IOException
+     */
+    static Concept readCache(DataInput in, Map<String, Map<String, ConceptOption>> readCodeLists) throws IOException {
+        Concept concept = new Concept();
+        concept.effectiveDate = CodebookCache.readString(in);
+        concept.id = CodebookCache.readString(in);
+        concept.codesystem = CodebookCache.readString(in);
+        concept.code = CodebookCache.readString(in);
+        concept.description_code = CodebookCache.readString(in);
+        concept.codelist_ref = CodebookCache.readString(in);
+        concept.parent = CodebookCache.readString(in);
+        concept.data_type = CodebookCache.readString(in);
+        concept.versionLabel = CodebookCache.readString(in);
+        concept.statusCode = CodebookCache.readString(in);
+        // the maps are filled in the order in which they were written, which results in the same iteration order
+        int languages = in.readInt();
+        for(int i=0; i<languages; i++){
+            String language = CodebookCache.readString(in);
+            concept.addLanguageConcept(language, CodebookCache.readString(in));
+        }
+        int properties = in.readInt();
+        for(int i=0; i<properties; i++){
+            String key = CodebookCache.readString(in);
+            concept.propertiesMap.put(key, CodebookCache.readString(in));
+        }
+
+        byte options = in.readByte();
+        if(options==writtenOptions){
+            Map<String, ConceptOption> conceptOptionsMap = new HashMap<>();
+            int size = in.readInt();
+            for(int i=0; i<size; i++){
+                ConceptOption conceptOption = ConceptOption.readCache(in);
+                conceptOptionsMap.put(conceptOption.code, conceptOption);
+            }
+            readCodeLists.put(concept.codelist_ref, Collections.unmodifiableMap(conceptOptionsMap));
+        }
+        if(options!=noOptions){
+            concept.conceptOptionsMap = readCodeLists.get(concept.codelist_ref);
+            if(concept.conceptOptionsMap==null){
+                throw new IOException("Codelist "+concept.codelist_ref+" of concept "+concept.id+" is missing");
+            }
+        }
+        return concept;
+    }
+
     // e.g. {DATA_COLNAME=Aantalinzendingen}{OTHER_PROPERTY=SomeValue}
     private void handleProperties(String properties){
         if(!properties.equalsIgnoreCase("")){
@@ -184,7 +256,7 @@ class Concept {
         }
     }
 
-    private class ConceptOption {
+    static class ConceptOption {
         private String codesystemName;
         private String code;
         private String description_code;
@@ -196,18 +268,42 @@ class Concept {
             this.description_code = description_code;
         }
 
-        private void addLanguageConceptOptions(String language, LanguageConceptOptions languageConceptOptions){
+        void addLanguageConceptOptions(String language, LanguageConceptOptions languageConceptOptions){
             languageConceptOptionsMap.put(language, languageConceptOptions);
         }
 
-        private void addValueSetDesignations(ArtDecorValueSet artDecorValueSet, boolean addToExceptionList){
+        private void writeCache(DataOutput out) throws IOException {
+            CodebookCache.writeString(out, codesystemName);
+            CodebookCache.writeString(out, code);
+            CodebookCache.writeString(out, description_code);
+            out.writeInt(languageConceptOptionsMap.size());
+            for(LanguageConceptOptions languageConceptOptions:languageConceptOptionsMap.values()){
+                CodebookCache.writeString(out, languageConceptOptions.language);
+                CodebookCache.writeString(out, languageConceptOptions.value);
+                CodebookCache.writeString(out, languageConceptOptions.description);
+            }
+        }
+
+        private static ConceptOption readCache(DataInput in) throws IOException {
+            ConceptOption conceptOption = new ConceptOption(CodebookCache.readString(in), CodebookCache.readString(in), CodebookCache.readString(in));
+            int languages = in.readInt();
+            for(int i=0; i<languages; i++){
+                String language = CodebookCache.readString(in);
+                String value = CodebookCache.readString(in);
+                String description = CodebookCache.readString(in);
+                conceptOption.addLanguageConceptOptions(language, new LanguageConceptOptions(language, value, description));
+            }
+            return conceptOption;
+        }
+
+        private void addValueSetDesignations(ArtDecorValueSet artDecorValueSet){
             for(LanguageConceptOptions languageConceptOptions:languageConceptOptionsMap.values()){
-                artDecorValueSet.addConceptDesignation(languageConceptOptions.language, languageConceptOptions.description, addToExceptionList);
+                artDecorValueSet.addConceptDesignation(languageConceptOptions.language, languageConceptOptions.description);
             }
         }
     }
 
-    private class LanguageConceptOptions{
+    static class LanguageConceptOptions{
         private String language;
         private String value;
         private String description;
@@ -0,0 +1,122 @@
+package codebook;
+
+import settings.RunParameters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Snapshots of the conversion state, stored after each version. A snapshot is identified by a hash of the workbook of
+ * its version, the workbooks of all earlier versions and the run parameters which affect the conversion, so when only
+ * the versions from N on changed, the snapshot of version N-1 can still be used and the conversion resumes at N.
+ * Next to the state, the xml of the version's dataset and terminology is stored, as the output contains the datasets
+ * and terminology of all versions (see StreamedTerminology)
+ */
+class ConversionSnapshots {
+    // changes whenever the contents of the snapshots change, which invalidates all existing snapshots
+    private static final int formatVersion = 7;
+    private static final String stateExtension = ".state";
+    private static final String datasetExtension = ".dataset.xml";
+    private static final String terminologyExtension = ".terminology.xml";
+
+    private Path snapshotDirectory;
+    // the keys of the snapshots of this run, by version
+    private Map<Integer, String> keyMap = new TreeMap<>();
+
+    /**
+     * determine the snapshots of the versions of this run
+     * @param runParameters      parameters used for this run
+     * @param codebookFileMap    the workbooks of the versions, ordered by version
+     * @throws IOException
+     */
+    ConversionSnapshots(RunParameters runParameters, Map<Integer, Path> codebookFileMap) throws IOException {
+        snapshotDirectory = Paths.get(runParameters.getSnapshotDirectory());
+        Files.createDirectories(snapshotDirectory);
+
+        String key = CodebookCache.toHex(CodebookCache.createDigest().digest((formatVersion+"\n"+
+                runParameters.getProjectId()+"\n"+
+                runParameters.getProjectPrefix()+"\n"+
+                runParameters.getStatusCode()+"\n"+
+                runParameters.getExperimental()+"\n"+
+                runParameters.getDefaultLanguage()+"\n"+
+                runParameters.getIdentifierRegistryFile()+"\n"+
+                new TreeSet<>(runParameters.getLanguages())).getBytes(StandardCharsets.UTF_8)));
+        // each key includes the previous one, which makes a snapshot depend on all earlier versions
+        for(Map.Entry<Integer, Path> entry:codebookFileMap.entrySet()){
+            MessageDigest messageDigest = CodebookCache.createDigest();
+            messageDigest.update((key+"\n"+entry.getKey()+"\n").getBytes(StandardCharsets.UTF_8));
+            CodebookCache.addFile(messageDigest, entry.getValue());
+            key = CodebookCache.toHex(messageDigest.digest());
+            keyMap.put(entry.getKey(), key);
+        }
+    }
+
+    /**
+     * find the version after which the conversion can resume: the last version for which the state is available,
+     * while the datasets and terminology of that version and all versions before it are available as well
+     * @return the version, or null if the conversion has to start at the first version
+     */
+    Integer findResumeVersion(){
+        Integer resumeVersion = null;
+        for(int version:keyMap.keySet()){
+            if(!Files.isRegularFile(getDatasetPath(version)) || !Files.isRegularFile(getTerminologyPath(version))){
+                break;
+            }
+            if(Files.isRegularFile(getStatePath(version))){
+                resumeVersion = version;
+            }
+        }
+        return resumeVersion;
+    }
+
+    /**
+     * get the file which contains the conversion state after a version
+     * @param version    the version
+     * @return the file
+     */
+    Path getStatePath(int version){
+        return snapshotDirectory.resolve(keyMap.get(version)+stateExtension);
+    }
+
+    /**
+     * get the file which contains the xml of the dataset of a version
+     * @param version    the version
+     * @return the file
+     */
+    Path getDatasetPath(int version){
+        return snapshotDirectory.resolve(keyMap.get(version)+datasetExtension);
+    }
+
+    /**
+     * get the file which contains the xml of the terminology of a version
+     * @param version    the version
+     * @return the file
+     */
+    Path getTerminologyPath(int version){
+        return snapshotDirectory.resolve(keyMap.get(version)+terminologyExtension);
+    }
+
+    /**
+     * remove the snapshots which do not belong to a version of this run
+     * @throws IOException
+     */
+    void evictUnused() throws IOException {
+        Set<Path> usedPaths = new HashSet<>();
+        for(int version:keyMap.keySet()){
+            usedPaths.add(getStatePath(version));
+            usedPaths.add(getDatasetPath(version));
+            usedPaths.add(getTerminologyPath(version));
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(snapshotDirectory)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                if((fileName.endsWith(stateExtension) || fileName.endsWith(datasetExtension) || fileName.endsWith(terminologyExtension)) && !usedPaths.contains(path)){
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package codebook;
+
+import artdecor.ArtDecorTerminologyConcept;
+import artdecor.ArtDecorTerminologyValueSet;
+import artdecor.ArtDecorValueSet;
+import utils.CountingOutputStream;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * The terminology of a conversion which transforms and writes one version at a time (see
+ * CodebookToArtDecorConvertor.transformAndWriteOutput). The terminology associations and valuesets of a version are
+ * stored in a file per version, so they do not stay in memory until the terminology is written at the end.
+ * The output lists the valueset associations of all versions, then the concept associations of all versions and then
+ * the valuesets in the order in which they were created, so the part of a file which holds each of them is kept.
+ * A valueset can still change once its version is done, as a later version which is compared against it may deprecate
+ * or sort it, so it is only stored when it is replaced by a changed valueset. The valuesets which are still current
+ * at the end are written from memory.
+ */
+class StreamedTerminology implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private List<Section> valueSetAssociationSectionList = new ArrayList<>();
+    private List<Section> conceptAssociationSectionList = new ArrayList<>();
+    // the stored valuesets, by position in the output; null for a valueset which is still current
+    private List<Section> valueSetSectionList = new ArrayList<>();
+    // the position in the output of the valuesets which are still current. The valuesets are the ones of the
+    // convertor's valueset map, so this is stored in the same state to keep them shared
+    private Map<ArtDecorValueSet, Integer> currentValueSetMap = new IdentityHashMap<>();
+
+    /**
+     * store the terminology of a version
+     * @param version                    the version
+     * @param file                       the file to store it in
+     * @param terminologyValueSetList    the valueset associations of the version
+     * @param terminologyConceptList     the concept associations of the version
+     * @param newValueSetList            the valuesets created by the version
+     * @param replacedValueSetList       the valuesets which the version replaced by a changed valueset
+     * @throws IOException
+     */
+    void writeVersion(int version, Path file, List<ArtDecorTerminologyValueSet> terminologyValueSetList, List<ArtDecorTerminologyConcept> terminologyConceptList,
+                      List<ArtDecorValueSet> newValueSetList, List<ArtDecorValueSet> replacedValueSetList) throws IOException {
+        Section valueSetAssociationSection, conceptAssociationSection;
+        List<Section> replacedValueSetSectionList = new ArrayList<>();
+        // write to a temporary file first, so no partial snapshot is ever used
+        Path tempFile = Files.createTempFile(file.getParent(), "terminology", ".tmp");
+        try (CountingOutputStream countingOutputStream = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)));
+             Writer writer = new OutputStreamWriter(countingOutputStream, StandardCharsets.UTF_8)) {
+            for(ArtDecorTerminologyValueSet artDecorTerminologyValueSet:terminologyValueSetList){
+                artDecorTerminologyValueSet.writeXML(writer);
+            }
+            valueSetAssociationSection = endSection(version, 0, writer, countingOutputStream);
+            for(ArtDecorTerminologyConcept artDecorTerminologyConcept:terminologyConceptList){
+                artDecorTerminologyConcept.writeXML(writer);
+            }
+            conceptAssociationSection = endSection(version, valueSetAssociationSection.getEnd(), writer, countingOutputStream);
+            long offset = conceptAssociationSection.getEnd();
+            for(ArtDecorValueSet artDecorValueSet:replacedValueSetList){
+                artDecorValueSet.writeXML(writer);
+                Section section = endSection(version, offset, writer, countingOutputStream);
+                replacedValueSetSectionList.add(section);
+                offset = section.getEnd();
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+
+        valueSetAssociationSectionList.add(valueSetAssociationSection);
+        conceptAssociationSectionList.add(conceptAssociationSection);
+        for(int i=0; i<replacedValueSetList.size(); i++){
+            valueSetSectionList.set(currentValueSetMap.remove(replacedValueSetList.get(i)), replacedValueSetSectionList.get(i));
+        }
+        for(ArtDecorValueSet artDecorValueSet:newValueSetList){
+            currentValueSetMap.put(artDecorValueSet, valueSetSectionList.size());
+            valueSetSectionList.add(null);
+        }
+    }
+
+    private static Section endSection(int version, long offset, Writer writer, CountingOutputStream countingOutputStream) throws IOException {
+        writer.flush();
+        return new Section(version, offset, countingOutputStream.getCount()-offset);
+    }
+
+    /**
+     * write the valueset associations and the concept associations of all versions
+     * @param writer        the writer to write to
+     * @param filePaths     the file of each version
+     * @throws IOException
+     */
+    void writeAssociationsXML(Writer writer, IntFunction<Path> filePaths) throws IOException {
+        for(Section section:valueSetAssociationSectionList){
+            section.copy(filePaths, writer);
+        }
+        for(Section section:conceptAssociationSectionList){
+            section.copy(filePaths, writer);
+        }
+    }
+
+    /**
+     * write the valuesets of all versions
+     * @param writer        the writer to write to
+     * @param filePaths     the file of each version
+     * @throws IOException
+     */
+    void writeValueSetXML(Writer writer, IntFunction<Path> filePaths) throws IOException {
+        ArtDecorValueSet [] currentValueSets = new ArtDecorValueSet[valueSetSectionList.size()];
+        for(Map.Entry<ArtDecorValueSet, Integer> entry:currentValueSetMap.entrySet()){
+            currentValueSets[entry.getValue()] = entry.getKey();
+        }
+        for(int i=0; i<currentValueSets.length; i++){
+            if(currentValueSets[i]!=null){
+                currentValueSets[i].writeXML(writer);
+            }
+            else {
+                valueSetSectionList.get(i).copy(filePaths, writer);
+            }
+        }
+    }
+
+    /**
+     * the part of the file of a version which holds some of its xml
+     */
+    private static class Section implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private int version;
+        private long offset;
+        private long length;
+
+        Section(int version, long offset, long length){
+            this.version = version;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private long getEnd(){
+            return offset+length;
+        }
+
+        private void copy(IntFunction<Path> filePaths, Writer writer) throws IOException {
+            try (SeekableByteChannel channel = Files.newByteChannel(filePaths.apply(version))) {
+                channel.position(offset);
+                Reader reader = new InputStreamReader(new SectionInputStream(Channels.newInputStream(channel), length), StandardCharsets.UTF_8);
+                char [] buffer = new char[8192];
+                int read;
+                while((read = reader.read(buffer))!=-1){
+                    writer.write(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    /**
+     * reads no more than a given number of bytes from another stream
+     */
+    private static class SectionInputStream extends FilterInputStream {
+        private long remaining;
+
+        SectionInputStream(InputStream inputStream, long length){
+            super(inputStream);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(remaining<=0){
+                return -1;
+            }
+            int b = in.read();
+            if(b!=-1){
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(remaining<=0){
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if(read>0){
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parameters for generating synthetic codebooks
+ */
+public class GeneratorParameters {
+    private String outputDirectory;
+    private int concepts = 1000;
+    private int versions = 1;
+    private List<String> languages = new ArrayList<>(Arrays.asList("nl", "en"));
+
+    // fraction of the concepts which have a codelist
+    private double codeConceptFraction = 0.4;
+    // number of codelists which are shared by many concepts
+    private int sharedCodeLists = 50;
+    // maximum number of concepts which have a codelist of their own
+    private int uniqueCodeLists = 200;
+    private int optionsPerCodeList = 8;
+    // number of concepts in a group, the first of which is the parent of the others
+    private int groupSize = 10;
+
+    // fraction of the concepts and codelists which is changed in each new version
+    private double churn = 0.01;
+    private long seed = 1;
+
+    // from this number of concepts on the workbooks are written using the streaming writer
+    private int streamingThreshold = 10000;
+
+    public GeneratorParameters(String outputDirectory){
+        this.outputDirectory = outputDirectory;
+    }
+
+    public String getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public int getConcepts() {
+        return concepts;
+    }
+
+    public void setConcepts(int concepts) {
+        this.concepts = Math.max(1, concepts);
+    }
+
+    public int getVersions() {
+        return versions;
+    }
+
+    public void setVersions(int versions) {
+        this.versions = Math.max(1, versions);
+    }
+
+    public List<String> getLanguages() {
+        return languages;
+    }
+
+    public void setLanguages(List<String> languages) {
+        this.languages = new ArrayList<>(languages);
+    }
+
+    public double getCodeConceptFraction() {
+        return codeConceptFraction;
+    }
+
+    public void setCodeConceptFraction(double codeConceptFraction) {
+        this.codeConceptFraction = Math.min(1, Math.max(0, codeConceptFraction));
+    }
+
+    public int getSharedCodeLists() {
+        return sharedCodeLists;
+    }
+
+    public void setSharedCodeLists(int sharedCodeLists) {
+        this.sharedCodeLists = Math.max(0, sharedCodeLists);
+    }
+
+    public int getUniqueCodeLists() {
+        return uniqueCodeLists;
+    }
+
+    public void setUniqueCodeLists(int uniqueCodeLists) {
+        this.uniqueCodeLists = Math.max(0, uniqueCodeLists);
+    }
+
+    public int getOptionsPerCodeList() {
+        return optionsPerCodeList;
+    }
+
+    public void setOptionsPerCodeList(int optionsPerCodeList) {
+        this.optionsPerCodeList = Math.max(1, optionsPerCodeList);
+    }
+
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    public void setGroupSize(int groupSize) {
+        this.groupSize = Math.max(1, groupSize);
+    }
+
+    public double getChurn() {
+        return churn;
+    }
+
+    public void setChurn(double churn) {
+        this.churn = Math.min(1, Math.max(0, churn));
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    public void setStreamingThreshold(int streamingThreshold) {
+        this.streamingThreshold = streamingThreshold;
+    }
+}
@@ -0,0 +1,399 @@
+package generator;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import utils.ExcelUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Generates a directory with synthetic codebooks, one for each version, which can be used to test the converter at
+ * scale without sharing real codebooks. Each codebook has an Info sheet, a Codebook sheet and a sheet for each
+ * codelist that is used. Codelists are either shared by many concepts or belong to a single concept.
+ *
+ * The first version is generated from the parameters; each next version changes the descriptions of a fraction of the
+ * concepts and codelist options, adds options to some codelists, and adds and removes some concepts.
+ * The same parameters and seed always result in the same codebooks.
+ *
+ * java -cp PALGACodebookToArtDecor.jar generator.SyntheticCodebookGenerator --outputDirectory=dir [--key=value ...]
+ */
+public class SyntheticCodebookGenerator {
+    static{
+        // the default log4j2.xml logs to the GUI's text area, which requires javafx
+        if(System.getProperty("log4j.configurationFile")==null) {
+            System.setProperty("log4j.configurationFile", "log4j2-cli.xml");
+        }
+    }
+    private static final Logger logger = LogManager.getLogger(SyntheticCodebookGenerator.class.getName());
+
+    private static final String [] words = {"tumor", "margin", "invasion", "lymph", "node", "grade", "size", "type",
+            "biopsy", "resection", "location", "depth", "stage", "status", "mucosa", "polyp", "dysplasia", "lesion",
+            "receptor", "mitosis", "necrosis", "vessel", "distance", "number", "present", "absent", "left", "right",
+            "proximal", "distal", "primary", "residual", "specimen", "fixation", "diagnosis", "morphology"};
+    private static final LocalDate firstEffectiveDate = LocalDate.of(2000, 1, 1);
+
+    private GeneratorParameters parameters;
+    private Random random;
+
+    // the concepts of the current version, in the order in which they are written
+    private List<SyntheticConcept> conceptList = new ArrayList<>();
+    private Map<String, SyntheticCodeList> codeListMap = new LinkedHashMap<>();
+    private List<SyntheticCodeList> sharedCodeLists = new ArrayList<>();
+    private int nextConceptNumber = 0;
+    private int uniqueCodeListsUsed = 0;
+    private SyntheticConcept currentGroup;
+
+    public SyntheticCodebookGenerator(GeneratorParameters parameters){
+        this.parameters = parameters;
+        this.random = new Random(parameters.getSeed());
+    }
+
+    public static void main(String ... args) {
+        GeneratorParameters parameters;
+        try {
+            parameters = readParameters(args);
+        } catch (IllegalArgumentException e){
+            logger.log(Level.ERROR, "Incorrect parameters: {}", e.getMessage());
+            System.err.println(getUsageText());
+            System.exit(2);
+            return;
+        }
+
+        try {
+            new SyntheticCodebookGenerator(parameters).generate();
+        } catch (Exception e){
+            logger.log(Level.ERROR, "A fatal error occurred:\n"+e.getMessage(), e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * generate the codebooks
+     * @return the files that were written, ordered by version
+     * @throws IOException problem creating the output directory
+     */
+    public List<Path> generate() throws IOException {
+        Path directory = Paths.get(parameters.getOutputDirectory());
+        Files.createDirectories(directory);
+
+        createSharedCodeLists();
+        for(int i=0; i<parameters.getConcepts(); i++){
+            addConcept();
+        }
+
+        List<Path> files = new ArrayList<>();
+        for(int version=1; version<=parameters.getVersions(); version++){
+            if(version>1){
+                applyChurn();
+            }
+            Path file = directory.resolve("codebook_v"+version+".xlsx");
+            logger.log(Level.INFO, "Writing {} with {} concepts", file.getFileName(), conceptList.size());
+            writeVersion(version, file);
+            files.add(file);
+        }
+        return files;
+    }
+
+    private void createSharedCodeLists(){
+        for(int i=0; i<parameters.getSharedCodeLists(); i++){
+            SyntheticCodeList codeList = new SyntheticCodeList("shared_list_"+i, 200000000L+i*1000L);
+            for(int j=0; j<parameters.getOptionsPerCodeList(); j++){
+                codeList.addOption();
+            }
+            // some codelists allow the value to be unknown
+            if(i%4==0){
+                codeList.optionList.add(new SyntheticOption("NullFlavor", "UNK", "unknown"));
+            }
+            sharedCodeLists.add(codeList);
+            codeListMap.put(codeList.name, codeList);
+        }
+    }
+
+    /**
+     * add a new concept. The first concept of each group is the parent of the others in the group
+     */
+    private void addConcept(){
+        int number = nextConceptNumber++;
+        SyntheticConcept concept = new SyntheticConcept("C"+number, 100000000L+number, createName(3));
+        if(number%parameters.getGroupSize()==0 || currentGroup==null){
+            concept.dataType = "STR";
+            currentGroup = concept;
+        }
+        else {
+            concept.parent = currentGroup.id;
+            if(random.nextDouble()<parameters.getCodeConceptFraction()){
+                concept.dataType = "CAT";
+                concept.codeListRef = chooseCodeList(concept).name;
+            }
+            else {
+                concept.dataType = randomElement(new String[]{"STR", "REAL", "int", "date"});
+                if(concept.dataType.equals("REAL")){
+                    concept.properties = "{unit=mm}";
+                }
+            }
+        }
+        conceptList.add(concept);
+    }
+
+    private SyntheticCodeList chooseCodeList(SyntheticConcept concept){
+        if(sharedCodeLists.isEmpty() || (uniqueCodeListsUsed<parameters.getUniqueCodeLists() && random.nextBoolean())){
+            uniqueCodeListsUsed++;
+            SyntheticCodeList codeList = new SyntheticCodeList("list_"+concept.id, 300000000L+uniqueCodeListsUsed*1000L);
+            int options = 2 + random.nextInt(parameters.getOptionsPerCodeList());
+            for(int i=0; i<options; i++){
+                codeList.addOption();
+            }
+            codeListMap.put(codeList.name, codeList);
+            return codeList;
+        }
+        return sharedCodeLists.get(random.nextInt(sharedCodeLists.size()));
+    }
+
+    /**
+     * change the concepts and codelists for a new version
+     */
+    private void applyChurn(){
+        double churn = parameters.getChurn();
+        for(SyntheticConcept concept:conceptList){
+            if(random.nextDouble()<churn){
+                concept.revision++;
+            }
+        }
+        for(SyntheticCodeList codeList:codeListMap.values()){
+            if(random.nextDouble()<churn){
+                codeList.optionList.get(random.nextInt(codeList.optionList.size())).revision++;
+            }
+            if(random.nextDouble()<churn/2){
+                codeList.addOption();
+            }
+        }
+
+        // remove concepts which are not the parent of other concepts, together with their own codelists
+        int toRemove = (int) Math.round(conceptList.size()*churn/4);
+        for(int i=0; i<toRemove && conceptList.size()>1; i++){
+            int index = random.nextInt(conceptList.size());
+            SyntheticConcept concept = conceptList.get(index);
+            if(!concept.parent.isEmpty()){
+                conceptList.remove(index);
+                if(concept.codeListRef.startsWith("list_")){
+                    codeListMap.remove(concept.codeListRef);
+                }
+            }
+        }
+
+        int toAdd = (int) Math.round(parameters.getConcepts()*churn/4);
+        for(int i=0; i<toAdd; i++){
+            addConcept();
+        }
+    }
+
+    private void writeVersion(int version, Path file){
+        Workbook workbook = ExcelUtils.createXLSXWorkbook(conceptList.size()>=parameters.getStreamingThreshold());
+        CellStyle headerStyle = ExcelUtils.createHeaderStyle(workbook, IndexedColors.GREY_25_PERCENT);
+        writeInfoSheet(workbook, version);
+        Set<String> usedCodeLists = writeCodebookSheet(workbook, headerStyle);
+        for(String codeListRef:usedCodeLists){
+            writeCodeListSheet(workbook, headerStyle, codeListMap.get(codeListRef));
+        }
+        ExcelUtils.writeXLSXWorkBook(workbook, file.toString());
+    }
+
+    private void writeInfoSheet(Workbook workbook, int version){
+        Sheet sheet = workbook.createSheet("Info");
+        ExcelUtils.writeValues(sheet, Arrays.asList("Version", String.valueOf(version)));
+        ExcelUtils.writeValues(sheet, Arrays.asList("Effectivedate", firstEffectiveDate.plusWeeks(version-1).toString()));
+        for(String language:parameters.getLanguages()){
+            ExcelUtils.writeValues(sheet, Arrays.asList("DatasetName_"+language, "Synthetic dataset ("+language+")"));
+            ExcelUtils.writeValues(sheet, Arrays.asList("DatasetDescription_"+language, "Version "+version+" of the synthetic dataset ("+language+")"));
+        }
+    }
+
+    /**
+     * write the Codebook sheet
+     * @return the codelists used by the concepts, in the order in which they are first used
+     */
+    private Set<String> writeCodebookSheet(Workbook workbook, CellStyle headerStyle){
+        List<String> header = new ArrayList<>(Arrays.asList("id", "codesystem", "code", "description_code", "codelist_ref", "properties", "parent", "data_type"));
+        for(String language:parameters.getLanguages()){
+            header.add("description_"+language);
+        }
+        ExcelUtils.createSheetWithHeader(workbook, "Codebook", header, headerStyle);
+        Sheet sheet = workbook.getSheet("Codebook");
+
+        Set<String> usedCodeLists = new LinkedHashSet<>();
+        for(SyntheticConcept concept:conceptList){
+            String description = concept.getDescription();
+            List<String> values = new ArrayList<>(Arrays.asList(concept.id, "SNOMED CT", String.valueOf(concept.code), description, concept.codeListRef, concept.properties, concept.parent, concept.dataType));
+            for(String language:parameters.getLanguages()){
+                values.add(description+" ("+language+")");
+            }
+            ExcelUtils.writeValues(sheet, values);
+            if(!concept.codeListRef.isEmpty()){
+                usedCodeLists.add(concept.codeListRef);
+            }
+        }
+        return usedCodeLists;
+    }
+
+    private void writeCodeListSheet(Workbook workbook, CellStyle headerStyle, SyntheticCodeList codeList){
+        List<String> header = new ArrayList<>(Arrays.asList("codesystem", "code", "description_code"));
+        for(String language:parameters.getLanguages()){
+            header.add("description_"+language);
+            header.add("value_"+language);
+        }
+        ExcelUtils.createSheetWithHeader(workbook, codeList.name, header, headerStyle);
+        Sheet sheet = workbook.getSheet(codeList.name);
+
+        for(SyntheticOption option:codeList.optionList){
+            String description = option.getDescription();
+            List<String> values = new ArrayList<>(Arrays.asList(option.codesystem, option.code, description));
+            for(String language:parameters.getLanguages()){
+                values.add(description+" ("+language+")");
+                values.add(option.code);
+            }
+            ExcelUtils.writeValues(sheet, values);
+        }
+    }
+
+    private String createName(int numberOfWords){
+        StringBuilder stringBuilder = new StringBuilder();
+        for(int i=0; i<numberOfWords; i++){
+            if(i>0){
+                stringBuilder.append(' ');
+            }
+            stringBuilder.append(randomElement(words));
+        }
+        stringBuilder.setCharAt(0, Character.toUpperCase(stringBuilder.charAt(0)));
+        return stringBuilder.toString();
+    }
+
+    private String randomElement(String [] values){
+        return values[random.nextInt(values.length)];
+    }
+
+    private static GeneratorParameters readParameters(String ... args){
+        Map<String, String> argumentMap = new HashMap<>();
+        for(String arg:args){
+            if(!arg.startsWith("--") || !arg.contains("=")){
+                throw new IllegalArgumentException("argument "+arg+" is not of the form --key=value");
+            }
+            int index = arg.indexOf('=');
+            argumentMap.put(arg.substring(2, index), arg.substring(index+1).trim());
+        }
+        if(!argumentMap.containsKey("outputDirectory")){
+            throw new IllegalArgumentException("missing value for outputDirectory");
+        }
+
+        GeneratorParameters parameters = new GeneratorParameters(argumentMap.remove("outputDirectory"));
+        try {
+            for (Map.Entry<String, String> entry : argumentMap.entrySet()) {
+                String value = entry.getValue();
+                switch (entry.getKey()) {
+                    case "concepts": parameters.setConcepts(Integer.parseInt(value)); break;
+                    case "versions": parameters.setVersions(Integer.parseInt(value)); break;
+                    case "languages": parameters.setLanguages(Arrays.asList(value.split("\\s*,\\s*"))); break;
+                    case "codeConceptFraction": parameters.setCodeConceptFraction(Double.parseDouble(value)); break;
+                    case "sharedCodeLists": parameters.setSharedCodeLists(Integer.parseInt(value)); break;
+                    case "uniqueCodeLists": parameters.setUniqueCodeLists(Integer.parseInt(value)); break;
+                    case "optionsPerCodeList": parameters.setOptionsPerCodeList(Integer.parseInt(value)); break;
+                    case "groupSize": parameters.setGroupSize(Integer.parseInt(value)); break;
+                    case "churn": parameters.setChurn(Double.parseDouble(value)); break;
+                    case "seed": parameters.setSeed(Long.parseLong(value)); break;
+                    case "streamingThreshold": parameters.setStreamingThreshold(Integer.parseInt(value)); break;
+                    default: throw new IllegalArgumentException("unknown parameter "+entry.getKey());
+                }
+            }
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException("not a number: "+e.getMessage());
+        }
+        return parameters;
+    }
+
+    private static String getUsageText(){
+        return "Usage: java -cp <jar> generator.SyntheticCodebookGenerator --outputDirectory=<directory> [--<key>=<value> ...]\n" +
+                "keys:\n" +
+                "  concepts               number of concepts in the first version; default 1000\n" +
+                "  versions               number of versions; default 1\n" +
+                "  languages              comma separated languages; default nl,en\n" +
+                "  codeConceptFraction    fraction of the concepts which have a codelist; default 0.4\n" +
+                "  sharedCodeLists        number of codelists shared by many concepts; default 50\n" +
+                "  uniqueCodeLists        maximum number of concepts with a codelist of their own; default 200\n" +
+                "  optionsPerCodeList     number of options of a codelist; default 8\n" +
+                "  groupSize              number of concepts per group; default 10\n" +
+                "  churn                  fraction of the concepts and codelists changed in each version; default 0.01\n" +
+                "  seed                   seed of the random generator; default 1\n" +
+                "  streamingThreshold     number of concepts from which the streaming writer is used; default 10000";
+    }
+
+    /**
+     * a concept of the synthetic codebook
+     */
+    private static class SyntheticConcept {
+        private String id;
+        private long code;
+        private String name;
+        private String dataType = "STR";
+        private String codeListRef = "";
+        private String properties = "";
+        private String parent = "";
+        private int revision = 0;
+
+        SyntheticConcept(String id, long code, String name){
+            this.id = id;
+            this.code = code;
+            this.name = name;
+        }
+
+        String getDescription(){
+            return revision==0 ? name : name+" (revision "+revision+")";
+        }
+    }
+
+    /**
+     * a codelist of the synthetic codebook
+     */
+    private class SyntheticCodeList {
+        private String name;
+        private long firstCode;
+        private List<SyntheticOption> optionList = new ArrayList<>();
+
+        SyntheticCodeList(String name, long firstCode){
+            this.name = name;
+            this.firstCode = firstCode;
+        }
+
+        void addOption(){
+            optionList.add(new SyntheticOption("SNOMED CT", String.valueOf(firstCode+optionList.size()), createName(2)));
+        }
+    }
+
+    /**
+     * an option of a synthetic codelist
+     */
+    private static class SyntheticOption {
+        private String codesystem;
+        private String code;
+        private String name;
+        private int revision = 0;
+
+        SyntheticOption(String codesystem, String code, String name){
+            this.codesystem = codesystem;
+            this.code = code;
+            this.name = name;
+        }
+
+        String getDescription(){
+            return revision==0 ? name : name+" (revision "+revision+")";
+        }
+    }
+}
@@ -4,6 +4,10 @@ import codebook.CodebookManager;
 import codebook.CodebookToArtDecorConvertor;
 import gui.resourcemanagement.ResourceManager;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -11,20 +15,30 @@ import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Hyperlink;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import settings.IdentifierManager;
 import settings.RunParameters;
+import utils.ConversionMonitor;
+import utils.RunStatistics;
 import utils.TextAreaAppender;
 
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Program that updates the codesystems found in the excel codebooks
  */
@@ -35,7 +49,14 @@ public class PALGACodebookToArtDecor extends Application {
     private static final int sceneWidth = 800;
     private static final int sceneHeight = 500;
 
+    // how often the progress of a running conversion is shown
+    private static final int progressIntervalMillis = 250;
+
     private TextArea logArea;
+    private ProgressBar progressBar;
+    private Label progressLabel;
+    private Button buttonRun;
+    private Button buttonStop;
 
     private RunParameters runParameters=getDefaultParameters();
 
@@ -147,11 +168,42 @@ public class PALGACodebookToArtDecor extends Application {
     }
 
     /**
-     * Create the bottom pane, which contains buttons to e.g. run and exit the program
+     * Create the bottom pane, which contains the progress of the conversion and buttons to e.g. run and exit the program
      *
      * @return the Node which will be added to the borderpane
      */
     private Node setupBottomPane(){
+        VBox vBox = new VBox();
+        vBox.getChildren().addAll(setupProgressPane(), setupButtonPane());
+        return vBox;
+    }
+
+    /**
+     * Create the pane which shows the progress of the conversion
+     *
+     * @return the progress pane
+     */
+    private Node setupProgressPane(){
+        HBox hBox = new HBox();
+        hBox.getStyleClass().add("fillBackground");
+        hBox.setPadding(new Insets(10, 12, 0, 12));
+        hBox.setSpacing(10);
+        hBox.setAlignment(Pos.CENTER_LEFT);
+
+        progressBar = new ProgressBar(0);
+        progressBar.setPrefWidth(300);
+        progressLabel = new Label();
+
+        hBox.getChildren().addAll(progressBar, progressLabel);
+        return hBox;
+    }
+
+    /**
+     * Create the pane with the buttons
+     *
+     * @return the button pane
+     */
+    private Node setupButtonPane(){
         HBox hBox = new HBox();
         hBox.getStyleClass().add("fillBackground");
 
@@ -164,10 +216,15 @@ public class PALGACodebookToArtDecor extends Application {
         buttonClear.setOnAction(event -> logArea.setText(StaticTexts.getWelcomeText()));
 
         // add some buttons and tell what to do when the button is clicked
-        Button buttonRun = new Button("Run");
+        buttonRun = new Button("Run");
         buttonRun.setPrefSize(100, 20);
         buttonRun.setOnAction(event -> startTask());
 
+        // stops a running conversion; enabled while a conversion runs
+        buttonStop = new Button("Stop");
+        buttonStop.setPrefSize(100, 20);
+        buttonStop.setDisable(true);
+
         Button buttonExit = new Button("Exit");
         buttonExit.setPrefSize(100, 20);
         buttonExit.setOnAction(event -> System.exit(0));
@@ -186,10 +243,10 @@ public class PALGACodebookToArtDecor extends Application {
 
         // add to boxes
         rightBox.getChildren().addAll(helpHyperlink, aboutHyperlink);
-        hBox.getChildren().addAll(buttonClear, buttonRun, buttonExit, rightBox);
+        hBox.getChildren().addAll(buttonClear, buttonRun, buttonStop, buttonExit, rightBox);
 
         // give the right button a margin to push it to the center of the page
-        HBox.setMargin(buttonExit, new Insets(0,150,0,0));
+        HBox.setMargin(buttonExit, new Insets(0,40,0,0));
 
         return hBox;
     }
@@ -220,7 +277,7 @@ public class PALGACodebookToArtDecor extends Application {
     /**
      *
      * Called after the runbutton is clicked.
-     * Starts a Thread to do the actual work.
+     * Starts a Thread to do the actual work, showing its progress and allowing it to be stopped
      */
     private void startTask(){
         logArea.clear();
@@ -228,7 +285,13 @@ public class PALGACodebookToArtDecor extends Application {
         try {
             if(GUIWizard.startWizard(runParameters)) {
                 runParameters = GUIWizard.getRunParameters();
-                new Thread(new WorkTask()).start();
+                WorkTask workTask = new WorkTask();
+                progressBar.progressProperty().bind(workTask.progressProperty());
+                progressLabel.textProperty().bind(workTask.messageProperty());
+                buttonRun.disableProperty().bind(workTask.conversionRunningProperty());
+                buttonStop.disableProperty().bind(workTask.conversionRunningProperty().not());
+                buttonStop.setOnAction(event -> workTask.cancel());
+                new Thread(workTask).start();
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -239,9 +302,70 @@ public class PALGACodebookToArtDecor extends Application {
      * does the work
      */
     private class WorkTask extends Task {
+        // reports the progress of the conversion and stops it when the task is cancelled
+        private ConversionMonitor conversionMonitor = new ConversionMonitor();
+        // true until call() returns. Unlike runningProperty, it stays true after the task is cancelled, while the
+        // conversion stops and the reports are written
+        private BooleanProperty conversionRunning = new SimpleBooleanProperty(true);
+
         WorkTask(){
         }
 
+        /**
+         * @return whether the conversion is running; only changes on the JavaFX application thread
+         */
+        ReadOnlyBooleanProperty conversionRunningProperty(){
+            return conversionRunning;
+        }
+
+        /**
+         * stop the conversion. The conversion checks for cancellation between rows, workbooks, versions and
+         * datasets, so it stops almost immediately; the thread is not interrupted, as an interrupt may leave the
+         * files which are being written in an unknown state
+         * @param mayInterruptIfRunning    ignored
+         * @return false if the task could not be cancelled, e.g. because it already finished
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning){
+            conversionMonitor.cancel();
+            return super.cancel(false);
+        }
+
+        /**
+         * show the progress of the current phase of the conversion, with an estimate of the time it still takes.
+         * Called periodically, so the conversion itself never waits for the user interface
+         */
+        private void showProgress(){
+            String phase = conversionMonitor.getPhase();
+            int steps = conversionMonitor.getPhaseSteps();
+            int done = conversionMonitor.getPhaseStepsDone();
+            if(done==0){
+                // the first step gives the first estimate
+                updateProgress(-1, 1);
+            }
+            else{
+                updateProgress(done, steps);
+            }
+            String message = getPhaseText(phase)+" ("+done+"/"+steps+")";
+            long remainingMillis = conversionMonitor.getEstimatedRemainingMillis();
+            if(remainingMillis>=0){
+                message += ", about "+Math.max(1, TimeUnit.MILLISECONDS.toSeconds(remainingMillis))+"s left";
+            }
+            updateMessage(message);
+        }
+
+        private String getPhaseText(String phase){
+            switch (phase){
+                case "index": return "Finding codebooks";
+                case "read": return "Reading codebooks";
+                case "transform": return "Transforming codebooks";
+                case "write": return "Writing ArtDecor XML file";
+                case "convert": return "Converting codebooks";
+                case "finished": return "Writing the reports";
+                default: return "Starting";
+            }
+        }
+
         /**
          * creates the captionoverwriter, generates the codebook items, creates the codebook,
          * saves the codebook and write the conflicting captions to a file
@@ -249,28 +373,71 @@ public class PALGACodebookToArtDecor extends Application {
          */
         @Override
         public Void call() {
+            CodebookManager codebookManager = null;
+            String result = "Failed";
+            // show the progress at a fixed rate, independent of how often the conversion makes progress
+            ScheduledExecutorService progressService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progressService.scheduleAtFixedRate(this::showProgress, 0, progressIntervalMillis, TimeUnit.MILLISECONDS);
+            RunStatistics.resetPeakHeap();
             try {
 
                 logger.log(Level.INFO, "Reading codebooks...");
-                // reset the identifier manager
-                IdentifierManager.createIdentifierManager(runParameters);
-
-                // create the codebookmanager, reading the codebooks in the directory
-                CodebookManager codebookManager = CodebookManager.readCodebooks(runParameters);
-
-                // transform the codebooks to the artdecor datatypes
-                logger.log(Level.INFO, "Transforming codebooks...");
-                CodebookToArtDecorConvertor codebookToArtDecorConvertor = new CodebookToArtDecorConvertor(codebookManager, runParameters);
-                codebookToArtDecorConvertor.transformCodebooks();
-
-                // write the xml file
-                logger.log(Level.INFO, "Writing ArtDecor XML file...");
-                codebookToArtDecorConvertor.writeOutput(runParameters.getOutputFile());
+                if(runParameters.useStreamingConversion()){
+                    // only read the version of each codebook; the codebooks themselves are read while converting
+                    codebookManager = CodebookManager.indexCodebooks(runParameters, conversionMonitor);
+                    logger.log(Level.INFO, "Transforming codebooks and writing ArtDecor XML file...");
+                    CodebookToArtDecorConvertor codebookToArtDecorConvertor = new CodebookToArtDecorConvertor(codebookManager, runParameters);
+                    codebookToArtDecorConvertor.transformAndWriteOutput(runParameters.getOutputFile());
+                }
+                else {
+                    // create the codebookmanager, reading the codebooks in the directory
+                    codebookManager = CodebookManager.readCodebooks(runParameters, conversionMonitor);
+
+                    // transform the codebooks to the artdecor datatypes
+                    logger.log(Level.INFO, "Transforming codebooks...");
+                    CodebookToArtDecorConvertor codebookToArtDecorConvertor = new CodebookToArtDecorConvertor(codebookManager, runParameters);
+                    codebookToArtDecorConvertor.transformCodebooks();
+
+                    // write the xml file
+                    logger.log(Level.INFO, "Writing ArtDecor XML file...");
+                    codebookToArtDecorConvertor.writeOutput(runParameters.getOutputFile());
+                }
 
                 logger.log(Level.INFO, "Finished!");
+                result = "Finished";
+            } catch (CancellationException e){
+                logger.log(Level.INFO, "The conversion was stopped");
+                result = "Stopped";
             } catch (Exception e){
                 logger.log(Level.INFO, "A fatal error occurred:\n"+e.getMessage());
                 e.printStackTrace();
+            } finally {
+                // the problems in the codebooks and the run statistics are also reported when the conversion failed
+                if(codebookManager!=null){
+                    try {
+                        codebookManager.reportDiagnostics();
+                    } catch (IOException e){
+                        logger.log(Level.INFO, "Problem writing the diagnostics report: "+e.getMessage());
+                    }
+                    try {
+                        codebookManager.reportStatistics();
+                    } catch (IOException e){
+                        logger.log(Level.INFO, "Problem writing the run report: "+e.getMessage());
+                    }
+                }
+                progressService.shutdown();
+                try {
+                    progressService.awaitTermination(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+                updateProgress(result.equals("Finished") ? 1 : 0, 1);
+                updateMessage(result);
+                Platform.runLater(() -> conversionRunning.set(false));
             }
             return null;
         }
@@ -36,7 +36,8 @@ class StaticTexts {
     static String getHelpText(){
         return  "Press Run to start the GUIWizard. The fields contain mouseovers with examples. Please\n" +
                 "be aware that some values need to be provided by Nictiz (the project id, project prefix)\n" +
-                "Output is written to the directory that contains your datafile.\n\n";
+                "Output is written to the directory that contains your datafile.\n" +
+                "Press Stop to stop a running conversion.\n\n";
     }
 
     /**
@@ -1,41 +1,68 @@
 package settings;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * IdentifierManager keeps track of all the necessary identifiers required to create the Art-Decor XML file
+ * Each conversion uses its own manager, so several conversions can run in one JVM. The counters and the codesystem
+ * registry are thread safe; identifiers are handed out in the order in which they are requested, so a conversion
+ * which requests them in a fixed order always gets the same identifiers.
+ * If an identifier registry is used, concepts, valuesets and codesystems get the identifiers they had in earlier runs,
+ * and new ones get numbers which were not used before
  */
-public class IdentifierManager {
+public class IdentifierManager implements Serializable {
+    private static final long serialVersionUID = 1L;
     private static final Pattern idPattern = Pattern.compile(".*id=\"(.*?)\".*", Pattern.DOTALL);
     private static final Pattern alreadyACodeSystemPattern = Pattern.compile("(\\d+\\.)+\\d+");
-    private static final SimpleDateFormat idDateFormatter = new SimpleDateFormat("yyyyMMddHHmmss");
+    private static final ThreadLocal<SimpleDateFormat> idDateFormatter = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyyMMddHHmmss"));
 
-    private static IdentifierManager identifierManager;
+    // tracks the available codesystems; they are written in the order in which they were registered
+    private Map<String, CodeSystem> codeSystemMap = new ConcurrentHashMap<>();
+    private AtomicInteger codeSystemOrder = new AtomicInteger();
+    // the id each codesystem name resolved to, both for names which are an id already and for generated ids,
+    // so the pattern is only matched once per name
+    private Map<String, String> resolvedCodeSystemIdMap = new ConcurrentHashMap<>();
+    private transient AtomicLong codeSystemCacheHits = new AtomicLong();
+    private transient AtomicLong codeSystemCacheMisses = new AtomicLong();
 
-    // tracks the available codesystems
-    private Map<String, CodeSystem> codeSystemMap = new LinkedHashMap<>();
-
-    private String conceptListId;
+    private volatile String conceptListId;
 
     private String dataSetId;
-    private int dataSetIdNext=0;
+    private AtomicInteger dataSetIdNext = new AtomicInteger();
 
     private String conceptId;
-    private int conceptIdNext=0;
+    private AtomicInteger conceptIdNext = new AtomicInteger();
 
     private String valueSetId;
-    private int valueSetIdNext=0;
+    private AtomicInteger valueSetIdNext = new AtomicInteger();
 
     private String codesystemId;
-    private int codeSystemIdNext=0;
+    private AtomicInteger codeSystemIdNext = new AtomicInteger();
 
     private List<String> idList;
 
-    private IdentifierManager(RunParameters runParameters){
+    private String projectId;
+    // the registry is attached again after a snapshot is restored, so it is not part of the snapshot
+    private transient IdentifierRegistry identifierRegistry;
+
+    /**
+     * create an identifier manager, which uses the identifier registry set in the runparameters, if any
+     * @param runParameters parameters used for this run
+     * @throws IOException problem reading the identifier registry
+     */
+    public IdentifierManager(RunParameters runParameters) throws IOException {
+        projectId = runParameters.getProjectId();
         setupIdList(runParameters.getProjectId(), runParameters.getProjectPrefix());
 
         dataSetId = findId("dataset")+".";
@@ -43,23 +70,49 @@ public class IdentifierManager {
         valueSetId = findId("valueset")+".";
         codesystemId = findId("codesystem")+".";
 
-        codeSystemMap.put("SNOMED CT", new CodeSystem("1900-01-01T00:00:00", "2.16.840.1.113883.6.96"));
-        codeSystemMap.put("NullFlavor", new CodeSystem("1900-01-01T00:00:00","2.16.840.1.113883.5.1008"));
-        codeSystemMap.put("LOINC", new CodeSystem("1900-01-01T00:00:00", "2.16.840.1.113883.6.1"));
-//        identifierManager = this;
+        addCodeSystem("SNOMED CT", "1900-01-01T00:00:00", "2.16.840.1.113883.6.96");
+        addCodeSystem("NullFlavor", "1900-01-01T00:00:00","2.16.840.1.113883.5.1008");
+        addCodeSystem("LOINC", "1900-01-01T00:00:00", "2.16.840.1.113883.6.1");
+
+        if(runParameters.useIdentifierRegistry()){
+            setIdentifierRegistry(new IdentifierRegistry(Paths.get(runParameters.getIdentifierRegistryFile())));
+        }
     }
 
-    public static void createIdentifierManager(RunParameters runParameters){
-        identifierManager = new IdentifierManager(runParameters);
+    /**
+     * use a registry for the identifiers of concepts, valuesets and codesystems. The counters continue after the
+     * highest number in the registry, so new items never get an identifier which was used before
+     * @param identifierRegistry the registry
+     */
+    public void setIdentifierRegistry(IdentifierRegistry identifierRegistry){
+        this.identifierRegistry = identifierRegistry;
+        if(identifierRegistry!=null){
+            conceptIdNext.accumulateAndGet(identifierRegistry.getNextNumber(conceptId), Math::max);
+            valueSetIdNext.accumulateAndGet(identifierRegistry.getNextNumber(valueSetId), Math::max);
+            codeSystemIdNext.accumulateAndGet(identifierRegistry.getNextNumber(codesystemId), Math::max);
+        }
     }
 
-    public static IdentifierManager getIdentifierManager(){
-        return identifierManager;
+    public IdentifierRegistry getIdentifierRegistry(){
+        return identifierRegistry;
     }
 
+    /**
+     * append the identifiers handed out so far to the identifier registry, if one is used
+     * @throws IOException
+     */
+    public void storeIdentifiers() throws IOException {
+        if(identifierRegistry!=null){
+            identifierRegistry.store();
+        }
+    }
+
+    private void addCodeSystem(String name, String effectiveDate, String codeSystemId){
+        codeSystemMap.put(name, new CodeSystem(name, effectiveDate, codeSystemId, codeSystemOrder.getAndIncrement()));
+    }
 
     public void setConceptListId(Date date){
-        conceptListId = "."+idDateFormatter.format(date)+".";
+        conceptListId = "."+idDateFormatter.get().format(date)+".";
     }
 
 
@@ -109,11 +162,14 @@ public class IdentifierManager {
     }
 
     /**
-     * returns a string representation of the project identifiers
-     * @return a string representation of the project identifiers
+     * writes the project identifiers as xml
+     * @param writer the writer to write to
+     * @throws IOException
      */
-    public String getProjectIdsXML(){
-        return idList.stream().collect(Collectors.joining());
+    public void writeProjectIdsXML(Writer writer) throws IOException {
+        for(String line:idList){
+            writer.append(line);
+        }
     }
 
     /**
@@ -134,28 +190,49 @@ public class IdentifierManager {
     }
 
     /**
-     * transforms the codesystem map into xml
-     * @return xml representation of the codesystem map
+     * writes the codesystem map as xml
+     * @param writer the writer to write to
+     * @throws IOException
      */
-    public String getCodeSystemXML(){
-        StringBuilder stringBuilder = new StringBuilder();
-
-        for(Map.Entry<String, CodeSystem> entrySet:codeSystemMap.entrySet()){
-            String name = entrySet.getKey();
-            CodeSystem codeSystem = entrySet.getValue();
+    public void writeCodeSystemXML(Writer writer) throws IOException {
+        List<CodeSystem> codeSystemList = new ArrayList<>(codeSystemMap.values());
+        codeSystemList.sort(Comparator.comparingInt(codeSystem -> codeSystem.order));
+        for(CodeSystem codeSystem:codeSystemList){
+            String name = codeSystem.name;
 
             //stringBuilder.append("<codeSystem ref=\""+codeSystem.codeSystemId+"\" name=\""+name.replaceAll(" ","_")+"\" displayName=\""+name+"\" effectiveDate=\""+codeSystem.effectiveDate+"\"/>\n");
-            stringBuilder.append("<codeSystem ref=\"").append(codeSystem.codeSystemId).append("\" name=\"").append(name.replaceAll(" ", "_")).append("\" displayName=\"").append(name).append("\" effectiveDate=\"").append(codeSystem.effectiveDate).append("\"/>\n");
+            writer.append("<codeSystem ref=\"").append(codeSystem.codeSystemId).append("\" name=\"").append(name.replaceAll(" ", "_")).append("\" displayName=\"").append(name).append("\" effectiveDate=\"").append(codeSystem.effectiveDate).append("\"/>\n");
         }
-        return stringBuilder.toString();
     }
 
     /**
      * generate an identifier for a codesystem, e.g. codesystem-cce18 --> 1.2.3.4.5.6.7.8
+     * The same few names are looked up for every concept and option, so each name is resolved once and the
+     * resolved id is reused; getCodeSystemCacheHits and getCodeSystemCacheMisses count how often either happened
      * @param codeSystem name of the codesystem
+     * @param effectiveDate effective date used if the codesystem is new
      * @return an id for the codesystem
      */
     public String getCodeSystemId(String codeSystem, String effectiveDate){
+        String resolvedCodeSystemId = resolvedCodeSystemIdMap.get(codeSystem);
+        if(resolvedCodeSystemId!=null){
+            codeSystemCacheHits.incrementAndGet();
+            return resolvedCodeSystemId;
+        }
+        codeSystemCacheMisses.incrementAndGet();
+        // a concurrent request for the same name resolves to the same id, so it does not matter which one is stored
+        resolvedCodeSystemId = resolveCodeSystemId(codeSystem, effectiveDate);
+        resolvedCodeSystemIdMap.put(codeSystem, resolvedCodeSystemId);
+        return resolvedCodeSystemId;
+    }
+
+    /**
+     * resolve a codesystem name to an id, registering a new codesystem if necessary
+     * @param codeSystem name of the codesystem
+     * @param effectiveDate effective date used if the codesystem is new
+     * @return an id for the codesystem
+     */
+    private String resolveCodeSystemId(String codeSystem, String effectiveDate){
         // check whether the codeSystem is already in the 1.2.3.4.5.6 something format
         // if so it probably already is a codesystem id, so just return that.
         Matcher matcher = alreadyACodeSystemPattern.matcher(codeSystem);
@@ -164,27 +241,57 @@ public class IdentifierManager {
         }
 
         // otherwise check whether the codeySystem already exists in the table
-        // if not, generate an id for it
-        if(!codeSystemMap.containsKey(codeSystem)) {
-            codeSystemMap.put(codeSystem, new CodeSystem(effectiveDate, codesystemId+codeSystemIdNext++));
-        }
-        return codeSystemMap.get(codeSystem).codeSystemId;
+        // if not, generate an id for it; the map registers each codesystem once, even for concurrent requests
+        return codeSystemMap.computeIfAbsent(codeSystem, name ->
+                new CodeSystem(name, effectiveDate, getIdentifier(IdentifierRegistry.codeSystemKind, name, codesystemId, codeSystemIdNext), codeSystemOrder.getAndIncrement())).codeSystemId;
+    }
+
+    /**
+     * @return the number of codesystem lookups answered from the resolved names
+     */
+    public long getCodeSystemCacheHits(){
+        return codeSystemCacheHits.get();
+    }
+
+    /**
+     * @return the number of codesystem lookups for which the name had to be resolved
+     */
+    public long getCodeSystemCacheMisses(){
+        return codeSystemCacheMisses.get();
+    }
+
+    /**
+     * get the identifier of a concept; a concept which has no identifier yet gets the next concept id
+     * @param conceptId the id of the concept in the codebook
+     * @return the art-decor id of the concept
+     */
+    public String getConceptId(String conceptId){
+        return getIdentifier(IdentifierRegistry.conceptKind, conceptId, this.conceptId, conceptIdNext);
     }
 
     /**
-     * generate a valueset id
-     * @return a valueset id
+     * get the identifier of the valueset of a codelist; a codelist which has no identifier yet gets the next valueset id
+     * @param codelistRef the codelist
+     * @return the art-decor id of the valueset
      */
-    public String getNextValueSetId(){
-        return valueSetId+valueSetIdNext++;
+    public String getValueSetId(String codelistRef){
+        return getIdentifier(IdentifierRegistry.valueSetKind, codelistRef, valueSetId, valueSetIdNext);
     }
 
     /**
-     * generate a concept id
-     * @return a concept id
+     * look the identifier of an item up in the registry, or hand out the next identifier if there is no registry or
+     * the item is not in it yet
+     * @param kind   kind of the item
+     * @param name   name of the item
+     * @param prefix prefix of the generated identifiers of this kind
+     * @param next   counter of the generated identifiers of this kind
+     * @return the identifier
      */
-    public String getNextConceptId(){
-        return conceptId+conceptIdNext++;
+    private String getIdentifier(String kind, String name, String prefix, AtomicInteger next){
+        if(identifierRegistry==null){
+            return prefix+next.getAndIncrement();
+        }
+        return identifierRegistry.getIdentifier(kind, projectId, name, () -> prefix+next.getAndIncrement());
     }
 
     /**
@@ -202,16 +309,29 @@ public class IdentifierManager {
      * @return a dataset id
      */
     public String getNextDataSetId(){
-        return dataSetId+dataSetIdNext++;
+        return dataSetId+dataSetIdNext.getAndIncrement();
+    }
+
+    // the lookup counters describe the run which uses the manager, so a restored manager starts counting again
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        codeSystemCacheHits = new AtomicLong();
+        codeSystemCacheMisses = new AtomicLong();
     }
 
-    class CodeSystem{
+    private static class CodeSystem implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String name;
         private String effectiveDate;
         private String codeSystemId;
+        // position in the codesystem xml
+        private int order;
 
-        CodeSystem(String effectiveDate, String codeSystemId){
+        CodeSystem(String name, String effectiveDate, String codeSystemId, int order){
+            this.name = name;
             this.codeSystemId = codeSystemId;
             this.effectiveDate = effectiveDate;
+            this.order = order;
         }
     }
 }
@@ -0,0 +1,164 @@
+package settings;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * On-disk registry of the identifiers handed out to concepts, valuesets and codesystems, so an item keeps its
+ * identifier in every run, independent of the order in which the versions are converted or of items which were
+ * removed. The registry is an append-only log with one line per identifier (kind, project, name and identifier,
+ * separated by tabs); it is read into a hash map once, after which each lookup is a single map access.
+ * New identifiers are kept in memory until store is called, which appends them to the log
+ */
+public class IdentifierRegistry {
+    private static final Logger logger = LogManager.getLogger(IdentifierRegistry.class.getName());
+
+    public static final String conceptKind = "concept";
+    public static final String valueSetKind = "valueset";
+    public static final String codeSystemKind = "codesystem";
+
+    private Path file;
+    // identifiers by kind, project and name
+    private Map<String, String> identifierMap = new ConcurrentHashMap<>();
+    // lines of the identifiers which were not yet appended to the log
+    private List<String> newLines = new ArrayList<>();
+    // an interrupted append may have left an incomplete last line, which should not be continued
+    private boolean newLineRequired = false;
+
+    /**
+     * open a registry, reading the identifiers registered so far
+     * @param file    the log file; created when the first identifier is stored
+     * @throws IOException    problem reading the log
+     */
+    public IdentifierRegistry(Path file) throws IOException {
+        this.file = file;
+        if(Files.isRegularFile(file)){
+            read();
+        }
+    }
+
+    private void read() throws IOException {
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine())!=null){
+                lineNumber++;
+                String [] fields = line.split("\t", -1);
+                if(fields.length!=4 || fields[3].isEmpty()){
+                    logger.log(Level.WARN, "Ignoring line {} of the identifier registry {}", lineNumber, file);
+                    continue;
+                }
+                // the first registration of an item is the one which was used
+                identifierMap.putIfAbsent(createKey(fields[0], unescape(fields[1]), unescape(fields[2])), fields[3]);
+            }
+        }
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(fileChannel.size()>0){
+                ByteBuffer lastByte = ByteBuffer.allocate(1);
+                fileChannel.read(lastByte, fileChannel.size()-1);
+                newLineRequired = lastByte.get(0)!='\n';
+            }
+        }
+        logger.log(Level.INFO, "Read {} identifiers from {}", identifierMap.size(), file);
+    }
+
+    /**
+     * get the identifier of an item, registering a new identifier if the item has none yet
+     * @param kind             kind of the item, e.g. conceptKind
+     * @param project          the project the item belongs to
+     * @param name             name of the item, e.g. the concept's id
+     * @param newIdentifier    creates the identifier for an item which has none yet
+     * @return the identifier
+     */
+    public String getIdentifier(String kind, String project, String name, Supplier<String> newIdentifier){
+        return identifierMap.computeIfAbsent(createKey(kind, project, name), key -> {
+            String identifier = newIdentifier.get();
+            synchronized (newLines) {
+                newLines.add(kind+"\t"+escape(project)+"\t"+escape(name)+"\t"+identifier+"\n");
+            }
+            return identifier;
+        });
+    }
+
+    /**
+     * find the number which follows the highest number used in the registered identifiers which start with a prefix,
+     * e.g. 1.2.3.4.2.5 for the prefix 1.2.3.4.2. gives 6
+     * @param prefix    the prefix
+     * @return the next unused number, 0 if no identifier starts with the prefix
+     */
+    public int getNextNumber(String prefix){
+        int next = 0;
+        for(String identifier:identifierMap.values()){
+            if(identifier.startsWith(prefix)){
+                try {
+                    next = Math.max(next, Integer.parseInt(identifier.substring(prefix.length()))+1);
+                } catch (NumberFormatException e){
+                    // not a number, so it cannot collide with a generated identifier
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * append the identifiers registered since the last call to the log
+     * @throws IOException
+     */
+    public void store() throws IOException {
+        synchronized (newLines) {
+            if(newLines.isEmpty()){
+                return;
+            }
+            Path parent = file.toAbsolutePath().getParent();
+            if(parent!=null){
+                Files.createDirectories(parent);
+            }
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8))) {
+                if(newLineRequired){
+                    writer.write("\n");
+                    newLineRequired = false;
+                }
+                for(String line:newLines){
+                    writer.write(line);
+                }
+            }
+            newLines.clear();
+        }
+    }
+
+    private static String createKey(String kind, String project, String name){
+        return kind+"\t"+escape(project)+"\t"+escape(name);
+    }
+
+    // tabs and line breaks separate the fields and lines, so they are escaped in names
+    private static String escape(String value){
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value){
+        StringBuilder stringBuilder = new StringBuilder();
+        for(int i=0; i<value.length(); i++){
+            char c = value.charAt(i);
+            if(c=='\\' && i+1<value.length()){
+                char next = value.charAt(++i);
+                stringBuilder.append(next=='t'?'\t':next=='n'?'\n':next=='r'?'\r':next);
+            }
+            else {
+                stringBuilder.append(c);
+            }
+        }
+        return stringBuilder.toString();
+    }
+}
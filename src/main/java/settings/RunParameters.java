@@ -17,6 +17,25 @@ public class RunParameters {
     private String authorString;
     private String authorsStringFormatted;
 
+    // read the workbooks by streaming the sheet xml instead of loading the complete workbook
+    private boolean streamingReader = false;
+    // number of worker threads used to read the workbooks
+    private int readerThreads = Runtime.getRuntime().availableProcessors();
+    // read, transform and write the codebooks one version at a time instead of reading all of them first
+    private boolean streamingConversion = false;
+    // number of codebooks which are read ahead while a version is converted in the streaming conversion
+    private int readAheadVersions = 2;
+    // directory in which parsed codebooks are cached between runs; null if the codebooks should not be cached
+    private String codebookCacheDirectory = null;
+    // directory in which the conversion state is stored after each version; null if no snapshots should be used
+    private String snapshotDirectory = null;
+    // whether the output of a conversion which used snapshots is checked against a full conversion
+    private boolean verifySnapshots = false;
+    // file in which the identifiers of concepts, valuesets and codesystems are kept between runs; null if not used
+    private String identifierRegistryFile = null;
+    // file to which all problems found in the codebooks are written; null if no report should be written
+    private String diagnosticsReportFile = null;
+
 
     private Map<String, LanguageParameters> languageParametersMap = new HashMap<>();
 
@@ -41,6 +60,10 @@ public class RunParameters {
         return codebookDirectory.endsWith("\\")||codebookDirectory.endsWith("/")?codebookDirectory+"output.xml":codebookDirectory+File.separator+"output.xml";
     }
 
+    public String getRunReportFile(){
+        return codebookDirectory.endsWith("\\")||codebookDirectory.endsWith("/")?codebookDirectory+"run-report.json":codebookDirectory+File.separator+"run-report.json";
+    }
+
     public String getAuthorString(){
         return authorString;
     }
@@ -81,6 +104,90 @@ public class RunParameters {
         return languageParametersMap.keySet();
     }
 
+    public void setStreamingReader(boolean streamingReader){
+        this.streamingReader = streamingReader;
+    }
+
+    public boolean useStreamingReader(){
+        return streamingReader;
+    }
+
+    public void setReaderThreads(int readerThreads){
+        this.readerThreads = Math.max(1, readerThreads);
+    }
+
+    public int getReaderThreads(){
+        return readerThreads;
+    }
+
+    public void setStreamingConversion(boolean streamingConversion){
+        this.streamingConversion = streamingConversion;
+    }
+
+    public boolean useStreamingConversion(){
+        return streamingConversion;
+    }
+
+    public void setReadAheadVersions(int readAheadVersions){
+        this.readAheadVersions = Math.max(0, readAheadVersions);
+    }
+
+    public int getReadAheadVersions(){
+        return readAheadVersions;
+    }
+
+    public void setCodebookCacheDirectory(String codebookCacheDirectory){
+        this.codebookCacheDirectory = codebookCacheDirectory;
+    }
+
+    public String getCodebookCacheDirectory(){
+        return codebookCacheDirectory;
+    }
+
+    public boolean useCodebookCache(){
+        return codebookCacheDirectory!=null;
+    }
+
+    public void setSnapshotDirectory(String snapshotDirectory){
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    public String getSnapshotDirectory(){
+        return snapshotDirectory;
+    }
+
+    public boolean useSnapshots(){
+        return snapshotDirectory!=null;
+    }
+
+    public void setVerifySnapshots(boolean verifySnapshots){
+        this.verifySnapshots = verifySnapshots;
+    }
+
+    public boolean verifySnapshots(){
+        return verifySnapshots;
+    }
+
+    public void setIdentifierRegistryFile(String identifierRegistryFile){
+        this.identifierRegistryFile = identifierRegistryFile;
+    }
+
+    public String getIdentifierRegistryFile(){
+        return identifierRegistryFile;
+    }
+
+    public boolean useIdentifierRegistry(){
+        return identifierRegistryFile!=null;
+    }
+
+    public void setDiagnosticsReportFile(String diagnosticsReportFile){
+        this.diagnosticsReportFile = diagnosticsReportFile;
+    }
+
+    public String getDiagnosticsReportFile(){
+        return diagnosticsReportFile;
+    }
+
     public String getStatusCode() {
         return statusCode;
     }
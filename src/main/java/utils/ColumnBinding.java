@@ -0,0 +1,81 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds column names to the column indices found in the header of a sheet. The binding is created once per sheet,
+ * after which the values of a row can be retrieved by index instead of searching the header for every cell
+ */
+public class ColumnBinding {
+    private String sheetName;
+    private Diagnostics diagnostics;
+    private String version;
+    private Map<String, Integer> headerIndexMap = new HashMap<>();
+    private boolean missingColumns = false;
+
+    /**
+     * create a binding for a header
+     * @param headerValues the values of the header row
+     * @param sheetName    name of the sheet, used when reporting problems
+     * @param diagnostics  collects the problems
+     * @param version      version of the codebook, used when reporting problems
+     */
+    public ColumnBinding(List<String> headerValues, String sheetName, Diagnostics diagnostics, String version){
+        this.sheetName = sheetName;
+        this.diagnostics = diagnostics;
+        this.version = version;
+        List<String> headerList = ExcelUtils.getRowAsList(headerValues);
+        for(int i=0; i<headerList.size(); i++){
+            // keep the first occurrence of a name, as the header lookup always has
+            headerIndexMap.putIfAbsent(headerList.get(i), i);
+        }
+    }
+
+    /**
+     * resolve a column in the header
+     * if the column is not in the header this is reported once, and the column will return empty values
+     * @param columnName name of the column
+     * @return the column
+     */
+    public Column bind(String columnName){
+        Integer index = headerIndexMap.get(columnName);
+        if(index==null){
+            // if the header isn't found something is wrong with our codebook
+            diagnostics.report(Diagnostics.Code.MISSING_COLUMN, version, sheetName, 1, null, columnName, sheetName);
+            missingColumns = true;
+            return new Column(-1);
+        }
+        return new Column(index);
+    }
+
+    /**
+     * whether a column which was bound is not in the header
+     * @return true if a missing column was reported
+     */
+    public boolean hasMissingColumns(){
+        return missingColumns;
+    }
+
+    /**
+     * a column resolved to its index in the header
+     */
+    public static class Column {
+        private int index;
+
+        private Column(int index){
+            this.index = index;
+        }
+
+        /**
+         * get the value of this column in a row
+         * @param rowValues values of the row from which to retrieve the value
+         * @return the value found, prepared for xml
+         */
+        public String getValue(List<String> rowValues){
+            String cellValue = index!=-1 ? ExcelUtils.getCellValue(rowValues, index) : "";
+            return StringUtils.prepareValueForXML(cellValue);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 128-bit fingerprint of the case-folded contents of an object, used to quickly tell whether two objects differ.
+ * Two values which are equalsIgnoreCase result in the same fingerprint
+ */
+public class ContentFingerprint {
+    private long high;
+    private long low;
+
+    private ContentFingerprint(byte [] digest){
+        ByteBuffer byteBuffer = ByteBuffer.wrap(digest);
+        high = byteBuffer.getLong();
+        low = byteBuffer.getLong();
+    }
+
+    /**
+     * start a new fingerprint
+     * @return builder to which the contents can be added
+     */
+    public static Builder builder(){
+        return new Builder();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ContentFingerprint that = (ContentFingerprint) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (high ^ (high >>> 32));
+    }
+
+    /**
+     * collects the contents for a fingerprint
+     */
+    public static class Builder {
+        private MessageDigest messageDigest;
+
+        private Builder(){
+            try {
+                messageDigest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                // every java platform is required to support MD5
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * add an integer to the fingerprint
+         * @param value the value
+         * @return this builder
+         */
+        public Builder add(int value){
+            messageDigest.update((byte) (value >>> 24));
+            messageDigest.update((byte) (value >>> 16));
+            messageDigest.update((byte) (value >>> 8));
+            messageDigest.update((byte) value);
+            return this;
+        }
+
+        /**
+         * add a case-folded string to the fingerprint. The length is added as well, so the boundaries between values
+         * are part of the fingerprint
+         * @param value the value
+         * @return this builder
+         */
+        public Builder add(String value){
+            add(value.length());
+            for(int i=0; i<value.length(); i++){
+                // the same folding as String.equalsIgnoreCase
+                char c = Character.toLowerCase(Character.toUpperCase(value.charAt(i)));
+                messageDigest.update((byte) (c >>> 8));
+                messageDigest.update((byte) c);
+            }
+            return this;
+        }
+
+        public ContentFingerprint build(){
+            return new ContentFingerprint(messageDigest.digest());
+        }
+    }
+}
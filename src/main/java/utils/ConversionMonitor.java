@@ -0,0 +1,252 @@
+package utils;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Live progress and metrics of a conversion, registered as an MBean so a long conversion can be followed in jconsole
+ * or by a JMX agent instead of in the log. The MBean is named after the codebook directory, so the newest run of a
+ * directory replaces the previous one and a finished run stays visible until the next one starts.
+ * The monitor also carries the cancellation of a run: after cancel, the conversion stops at the next row, workbook,
+ * version or dataset with a CancellationException.
+ * The counters are updated while reading rows and transforming concepts, by several threads at once, so they only
+ * use atomic counters and volatile fields
+ */
+public class ConversionMonitor implements ConversionMonitorMBean {
+    private static final Logger logger = LogManager.getLogger(ConversionMonitor.class.getName());
+    private static final String domain = "PALGACodebookToArtDecor";
+
+    private final long startTime = System.nanoTime();
+    private volatile String phase = "";
+    private volatile long phaseStartTime = startTime;
+    private volatile int phaseSteps = 0;
+    private final AtomicInteger phaseStepsDone = new AtomicInteger();
+    private volatile String currentWorkbook = "";
+    private volatile int currentVersion = 0;
+    private volatile boolean cancelled = false;
+
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder concepts = new LongAdder();
+    private final LongAdder codebookCacheHits = new LongAdder();
+    private final LongAdder codebookCacheMisses = new LongAdder();
+    // the output and the codesystem lookups are counted by the objects doing the work, which are set once known
+    private volatile CountingOutputStream output;
+    private volatile LongSupplier codeSystemCacheHits = () -> 0;
+    private volatile LongSupplier codeSystemCacheMisses = () -> 0;
+
+    /**
+     * register the monitor of a run with the platform MBean server, replacing the monitor of an earlier run of the
+     * same codebook directory. A problem registering only disables the monitoring, not the conversion
+     * @param codebookDirectory    the codebook directory of the run
+     */
+    public void register(String codebookDirectory){
+        try {
+            ObjectName objectName = new ObjectName(domain+":type=Conversion,directory="+ObjectName.quote(String.valueOf(codebookDirectory)));
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            synchronized (ConversionMonitor.class) {
+                if(mBeanServer.isRegistered(objectName)){
+                    mBeanServer.unregisterMBean(objectName);
+                }
+                mBeanServer.registerMBean(this, objectName);
+            }
+        } catch (JMException e){
+            logger.log(Level.WARN, "Problem registering the conversion monitor: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * start a phase of the run
+     * @param phase    name of the phase, e.g. read
+     * @param steps    number of steps (workbooks or versions) of the phase
+     */
+    public void startPhase(String phase, int steps){
+        phaseStepsDone.set(0);
+        this.phaseSteps = steps;
+        this.phaseStartTime = System.nanoTime();
+        this.phase = phase;
+    }
+
+    /**
+     * count a step of the current phase as done
+     */
+    public void stepDone(){
+        phaseStepsDone.incrementAndGet();
+    }
+
+    /**
+     * ask the run to stop; the conversion stops the next time it checks whether it was cancelled
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    /**
+     * stop the conversion if it was cancelled
+     * @throws CancellationException    the run was cancelled
+     */
+    public void checkCancelled(){
+        if(cancelled){
+            throw new CancellationException("The conversion was cancelled");
+        }
+    }
+
+    /**
+     * mark the run as finished
+     */
+    public void finish(){
+        startPhase("finished", 0);
+    }
+
+    public void startWorkbook(String fileName){
+        currentWorkbook = fileName;
+    }
+
+    public void startVersion(int version){
+        currentVersion = version;
+    }
+
+    public void addRow(){
+        rows.increment();
+    }
+
+    public void addConcept(){
+        concepts.increment();
+    }
+
+    /**
+     * count a codebook which was taken from the codebook cache (true) or read from its workbook (false)
+     * @param hit    whether the codebook was in the cache
+     */
+    public void addCodebookCacheLookup(boolean hit){
+        (hit ? codebookCacheHits : codebookCacheMisses).increment();
+    }
+
+    /**
+     * @param output    the stream of output.xml
+     */
+    public void setOutput(CountingOutputStream output){
+        this.output = output;
+    }
+
+    /**
+     * @param hits      gives the number of codesystem lookups which reused a resolved name
+     * @param misses    gives the number of codesystem lookups which resolved a name
+     */
+    public void setCodeSystemLookups(LongSupplier hits, LongSupplier misses){
+        this.codeSystemCacheHits = hits;
+        this.codeSystemCacheMisses = misses;
+    }
+
+    @Override
+    public String getPhase(){
+        return phase;
+    }
+
+    @Override
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    @Override
+    public String getCurrentWorkbook(){
+        return currentWorkbook;
+    }
+
+    @Override
+    public int getCurrentVersion(){
+        return currentVersion;
+    }
+
+    @Override
+    public int getPhaseSteps(){
+        return phaseSteps;
+    }
+
+    @Override
+    public int getPhaseStepsDone(){
+        return phaseStepsDone.get();
+    }
+
+    @Override
+    public double getPhaseProgress(){
+        int steps = phaseSteps;
+        return steps==0 ? 0 : Math.min(1, (double) phaseStepsDone.get()/steps);
+    }
+
+    @Override
+    public long getElapsedMillis(){
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-startTime);
+    }
+
+    @Override
+    public long getEstimatedRemainingMillis(){
+        int steps = phaseSteps;
+        int done = phaseStepsDone.get();
+        if(done==0 || steps==0){
+            return -1;
+        }
+        long phaseTime = System.nanoTime()-phaseStartTime;
+        return TimeUnit.NANOSECONDS.toMillis(phaseTime*Math.max(0, steps-done)/done);
+    }
+
+    @Override
+    public long getRowsProcessed(){
+        return rows.sum();
+    }
+
+    @Override
+    public long getConceptsEmitted(){
+        return concepts.sum();
+    }
+
+    @Override
+    public long getBytesWritten(){
+        CountingOutputStream output = this.output;
+        return output==null ? 0 : output.getCount();
+    }
+
+    @Override
+    public long getCodebookCacheHits(){
+        return codebookCacheHits.sum();
+    }
+
+    @Override
+    public long getCodebookCacheMisses(){
+        return codebookCacheMisses.sum();
+    }
+
+    @Override
+    public double getCodebookCacheHitRate(){
+        return getHitRate(getCodebookCacheHits(), getCodebookCacheMisses());
+    }
+
+    @Override
+    public long getCodeSystemCacheHits(){
+        return codeSystemCacheHits.getAsLong();
+    }
+
+    @Override
+    public long getCodeSystemCacheMisses(){
+        return codeSystemCacheMisses.getAsLong();
+    }
+
+    @Override
+    public double getCodeSystemCacheHitRate(){
+        return getHitRate(getCodeSystemCacheHits(), getCodeSystemCacheMisses());
+    }
+
+    private static double getHitRate(long hits, long misses){
+        return hits+misses==0 ? 0 : (double) hits/(hits+misses);
+    }
+}
@@ -0,0 +1,97 @@
+package utils;
+
+/**
+ * The attributes of a running conversion which are shown by JMX tools such as jconsole
+ */
+public interface ConversionMonitorMBean {
+
+    /**
+     * @return the phase the conversion is in: index, read, transform, write, convert or finished
+     */
+    String getPhase();
+
+    /**
+     * @return whether the run was cancelled
+     */
+    boolean isCancelled();
+
+    /**
+     * @return the workbook which was started last; empty if no workbook was read yet
+     */
+    String getCurrentWorkbook();
+
+    /**
+     * @return the version which was started last; 0 if no version was transformed yet
+     */
+    int getCurrentVersion();
+
+    /**
+     * @return the number of steps (workbooks or versions) of the phase
+     */
+    int getPhaseSteps();
+
+    /**
+     * @return the number of steps of the phase which are done
+     */
+    int getPhaseStepsDone();
+
+    /**
+     * @return the part of the phase which is done, between 0 and 1
+     */
+    double getPhaseProgress();
+
+    /**
+     * @return the time since the start of the run
+     */
+    long getElapsedMillis();
+
+    /**
+     * @return the estimated time until the phase is done, based on the time the done steps took; -1 if unknown
+     */
+    long getEstimatedRemainingMillis();
+
+    /**
+     * @return the number of workbook rows read
+     */
+    long getRowsProcessed();
+
+    /**
+     * @return the number of concepts transformed
+     */
+    long getConceptsEmitted();
+
+    /**
+     * @return the number of bytes written to output.xml
+     */
+    long getBytesWritten();
+
+    /**
+     * @return the number of codebooks taken from the codebook cache
+     */
+    long getCodebookCacheHits();
+
+    /**
+     * @return the number of codebooks read from their workbook
+     */
+    long getCodebookCacheMisses();
+
+    /**
+     * @return the part of the codebooks taken from the codebook cache; 0 if no codebook was read
+     */
+    double getCodebookCacheHitRate();
+
+    /**
+     * @return the number of codesystem lookups which reused a resolved name
+     */
+    long getCodeSystemCacheHits();
+
+    /**
+     * @return the number of codesystem lookups which resolved a name
+     */
+    long getCodeSystemCacheMisses();
+
+    /**
+     * @return the part of the codesystem lookups which reused a resolved name; 0 if there were no lookups
+     */
+    double getCodeSystemCacheHitRate();
+}
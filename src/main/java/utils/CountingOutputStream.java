@@ -0,0 +1,36 @@
+package utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream which counts the bytes written to another stream. The stream is written by one thread, but the
+ * count may be read by others (see ConversionMonitor)
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    private volatile long count = 0;
+
+    public CountingOutputStream(OutputStream outputStream){
+        super(outputStream);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long getCount(){
+        return count;
+    }
+}
@@ -0,0 +1,53 @@
+package utils;
+
+import java.io.IOException;
+
+/**
+ * A workbook reader which counts the sheets and rows read by another reader; the rows are also counted by the
+ * conversion monitor, which shows them while the workbook is read. Reading stops at the next row once the run
+ * is cancelled
+ */
+public class CountingWorkbookReader implements WorkbookReader {
+    private WorkbookReader workbookReader;
+    private ConversionMonitor conversionMonitor;
+    private int sheets = 0;
+    private int rows = 0;
+
+    public CountingWorkbookReader(WorkbookReader workbookReader, ConversionMonitor conversionMonitor){
+        this.workbookReader = workbookReader;
+        this.conversionMonitor = conversionMonitor;
+    }
+
+    @Override
+    public boolean readSheet(String sheetName, RowHandler rowHandler) throws IOException {
+        boolean hasSheet = workbookReader.readSheet(sheetName, (rowNum, rowValues) -> {
+            conversionMonitor.checkCancelled();
+            rows++;
+            conversionMonitor.addRow();
+            rowHandler.handleRow(rowNum, rowValues);
+        });
+        if(hasSheet){
+            sheets++;
+        }
+        return hasSheet;
+    }
+
+    /**
+     * @return the number of sheets read so far
+     */
+    public int getSheets(){
+        return sheets;
+    }
+
+    /**
+     * @return the number of rows read so far
+     */
+    public int getRows(){
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        workbookReader.close();
+    }
+}
@@ -0,0 +1,213 @@
+package utils;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Collects the problems found in the codebooks of a run. A problem which is found again (e.g. the same error in
+ * several rows of a codelist) is counted instead of stored again, and only the first problems of each kind are
+ * logged, so a codebook with a systematic error does not flood the log. At the end of the run a summary is logged,
+ * and all problems can be written to a report file.
+ * Codebooks are read concurrently, so problems may be reported from several threads
+ */
+public class Diagnostics {
+    private static final Logger logger = LogManager.getLogger(Diagnostics.class.getName());
+    // number of distinct problems of each kind which are logged when they are found
+    private static final int logLimit = 50;
+
+    /**
+     * the kinds of problems, with the message logged for them; the placeholders are filled with the arguments
+     * given when the problem is reported
+     */
+    public enum Code {
+        MISSING_COLUMN(Level.ERROR, "Problem finding {} in the header of sheet {}"),
+        INVALID_EFFECTIVE_DATE(Level.ERROR, "Severe Error: The effective date is not in the correct format {}"),
+        MISSING_EFFECTIVE_DATE(Level.WARN, "Warning: The Effectivedate is not available in the INFO sheet (yyyy-mm-dd). Setting it to today... "),
+        DUPLICATE_CONCEPT(Level.ERROR, "Concept: The identifier in the codebook must be unique {}"),
+        CODESYSTEM_TYPO(Level.WARN, "Concept: Codesystem found: {} for {}. Did you mean {}?"),
+        MISSING_CODE(Level.ERROR, "Concept: Mandatory code missing for concept {}"),
+        MISSING_CODESYSTEM(Level.ERROR, "Concept: Mandatory codesystem missing for concept {}"),
+        MISSING_CODE_DESCRIPTION(Level.ERROR, "Concept: Mandatory code description missing for concept {}"),
+        MISSING_CODELIST(Level.ERROR, "Severe Error: Issue adding codelist, ref = {}"),
+        CODELIST_CODESYSTEM_TYPO(Level.WARN, "Codelist Entry: Codesystem found: {} in sheet {}. Did you mean {}?"),
+        MISSING_OPTION_CODE(Level.ERROR, "Codelist Entry: Mandatory code missing in codelist {} for concept {}"),
+        MISSING_OPTION_CODESYSTEM(Level.ERROR, "Codelist Entry: Mandatory codesystem missing in codelist {} for concept {}"),
+        MISSING_OPTION_CODE_DESCRIPTION(Level.ERROR, "Codelist Entry: Mandatory code description missing in codelist {} for concept {}"),
+        DATA_TYPE_CHANGED(Level.ERROR, "Concept: The data type of concept {} was changed from {} to {}, which is not allowed");
+
+        private Level level;
+        private String message;
+
+        Code(Level level, String message){
+            this.level = level;
+            this.message = message;
+        }
+
+        public Level getLevel(){
+            return level;
+        }
+    }
+
+    // the problems by their contents; the row is not part of the key, so a problem found in several rows is one entry
+    private Map<Issue, Issue> issueMap = new HashMap<>();
+    private Map<Code, Integer> loggedMap = new EnumMap<>(Code.class);
+
+    /**
+     * report a problem
+     * @param code         the kind of problem
+     * @param version      version of the codebook
+     * @param sheet        the sheet in which the problem was found, may be null
+     * @param row          the row (1-based, as shown by Excel) in which the problem was found, 0 if not applicable
+     * @param conceptId    the concept the problem belongs to, may be null
+     * @param arguments    the values for the placeholders of the code's message
+     */
+    public synchronized void report(Code code, String version, String sheet, int row, String conceptId, Object ... arguments){
+        Issue issue = new Issue(code, version, sheet, conceptId, arguments);
+        Issue existingIssue = issueMap.get(issue);
+        if(existingIssue!=null){
+            existingIssue.count++;
+            return;
+        }
+        issue.row = row;
+        issueMap.put(issue, issue);
+
+        int logged = loggedMap.getOrDefault(code, 0);
+        if(logged<logLimit){
+            logger.log(code.level, issue.getMessage());
+        }
+        else if(logged==logLimit){
+            logger.log(code.level, "More problems of the kind {} were found; they are counted in the summary", code);
+        }
+        loggedMap.put(code, logged+1);
+    }
+
+    /**
+     * whether any problem was reported
+     * @return true/false
+     */
+    public synchronized boolean hasIssues(){
+        return !issueMap.isEmpty();
+    }
+
+    /**
+     * log the number of problems found, per kind
+     */
+    public synchronized void logSummary(){
+        if(issueMap.isEmpty()){
+            logger.log(Level.INFO, "No problems were found in the codebooks");
+            return;
+        }
+        Map<Code, int []> countMap = new EnumMap<>(Code.class);
+        int errors = 0;
+        int warnings = 0;
+        for(Issue issue:issueMap.keySet()){
+            int [] counts = countMap.computeIfAbsent(issue.code, code -> new int[2]);
+            counts[0]++;
+            counts[1] += issue.count;
+            if(issue.code.level==Level.ERROR){
+                errors += issue.count;
+            }
+            else{
+                warnings += issue.count;
+            }
+        }
+        logger.log(Level.INFO, "Problems found in the codebooks: {} errors, {} warnings", errors, warnings);
+        for(Map.Entry<Code, int []> entry:countMap.entrySet()){
+            logger.log(Level.INFO, "  {}: {} times, {} different", entry.getKey(), entry.getValue()[1], entry.getValue()[0]);
+        }
+    }
+
+    /**
+     * write all problems to a tab separated file, ordered by version, sheet and row
+     * @param file    the report file
+     * @throws IOException
+     */
+    public synchronized void writeReport(Path file) throws IOException {
+        List<Issue> issueList = new ArrayList<>(issueMap.keySet());
+        issueList.sort(Comparator.comparing((Issue issue) -> issue.version, Diagnostics::compareVersions)
+                .thenComparing(issue -> issue.sheet, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparingInt(issue -> issue.row)
+                .thenComparing(issue -> issue.code));
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("level\tcode\tversion\tsheet\trow\tconceptId\tcount\tmessage\n");
+            for(Issue issue:issueList){
+                writer.append(issue.code.level.name()).append('\t')
+                        .append(issue.code.name()).append('\t')
+                        .append(toField(issue.version)).append('\t')
+                        .append(toField(issue.sheet)).append('\t')
+                        .append(issue.row>0?String.valueOf(issue.row):"").append('\t')
+                        .append(toField(issue.conceptId)).append('\t')
+                        .append(String.valueOf(issue.count)).append('\t')
+                        .append(toField(issue.getMessage())).append('\n');
+            }
+        }
+        logger.log(Level.INFO, "Wrote {} problems to {}", issueList.size(), file);
+    }
+
+    // version labels are numbers, but a label which is not is reported as well
+    private static int compareVersions(String version, String otherVersion){
+        try {
+            return Integer.compare(Integer.parseInt(version), Integer.parseInt(otherVersion));
+        } catch (NumberFormatException e){
+            return String.valueOf(version).compareTo(String.valueOf(otherVersion));
+        }
+    }
+
+    private static String toField(String value){
+        return value==null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    /**
+     * a problem; equal problems only differ in the row in which they were found
+     */
+    private static class Issue {
+        private Code code;
+        private String version;
+        private String sheet;
+        private String conceptId;
+        private String [] arguments;
+        // the first row in which the problem was found and the number of times it was found
+        private int row;
+        private int count = 1;
+
+        Issue(Code code, String version, String sheet, String conceptId, Object [] arguments){
+            this.code = code;
+            this.version = version;
+            this.sheet = sheet;
+            this.conceptId = conceptId;
+            this.arguments = new String[arguments.length];
+            for(int i=0; i<arguments.length; i++){
+                this.arguments[i] = String.valueOf(arguments[i]);
+            }
+        }
+
+        String getMessage(){
+            String message = ParameterizedMessage.format(code.message, arguments);
+            return version==null ? message : "codebook version: "+version+"; "+message;
+        }
+
+        @Override
+        public boolean equals(Object object){
+            if(!(object instanceof Issue)){
+                return false;
+            }
+            Issue issue = (Issue) object;
+            return code==issue.code && Objects.equals(version, issue.version) && Objects.equals(sheet, issue.sheet) &&
+                    Objects.equals(conceptId, issue.conceptId) && Arrays.equals(arguments, issue.arguments);
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(code, version, sheet, conceptId, Arrays.hashCode(arguments));
+        }
+    }
+}
@@ -4,6 +4,7 @@ package utils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.FileOutputStream;
@@ -16,51 +17,59 @@ import java.util.List;
  */
 public class ExcelUtils {
     private static final Logger logger = LogManager.getLogger(ExcelUtils.class.getName());
+    // number of rows a streaming workbook keeps in memory; older rows are flushed to disk
+    private static final int streamingRowWindow = 100;
 
-    public static boolean isEmptyRow(Row row){
-        boolean isEmptyRow = true;
-        for(int cellNum = row.getFirstCellNum(); cellNum < row.getLastCellNum(); cellNum++){
-            Cell cell = row.getCell(cellNum);
-            if(cell != null && cell.getCellType() != Cell.CELL_TYPE_BLANK && !cell.toString().trim().equalsIgnoreCase("")){
-                isEmptyRow = false;
+    /**
+     * check whether all values of a row are empty
+     * @param rowValues the values of the row
+     * @return true if the row has no content
+     */
+    public static boolean isEmptyRow(List<String> rowValues){
+        for(String value:rowValues){
+            if(!value.trim().equalsIgnoreCase("")){
+                return false;
             }
         }
-        return isEmptyRow;
+        return true;
     }
 
 
     /**
-     * transform row to list
-     * @param row    the row
-     * @return  list representation of the row
+     * transform a header row to a list of lowercase column names
+     * @param rowValues    the values of the header row
+     * @return  list representation of the header
      */
-    public static List<String> getRowAsList(Row row){
-        List<String> list = new ArrayList();
-        for(Cell cell:row){
-            list.add(cell.getStringCellValue().toLowerCase());
+    public static List<String> getRowAsList(List<String> rowValues){
+        List<String> list = new ArrayList<>();
+        for(String value:rowValues){
+            list.add(value.toLowerCase());
         }
         return list;
     }
 
     /**
-     * get the value of a column
-     * @param row        row from which to retrieve the value
-     * @param columnName name of the colum
-     * @param headerList headernames, to retrieve the appropriate index
-     * @return the value found
+     * transform a row to a list with the string values of its cells, which is what the WorkbookReaders hand out
+     * @param row    the row
+     * @return  list with the values of the row; cells which do not exist are empty strings
      */
-    public static String getValue(Row row, String columnName, List<String> headerList){
-        String cellValue="";
-        // find the column name in the header and retrieve the value
-        int index = headerList.indexOf(columnName);
-        if(index!=-1) {
-            cellValue = getCellValue(row, index);
-        }
-        else{
-            // if the header isn't found something is wrong with our codebook
-            logger.error("Problem finding {} in the header of sheet {}", columnName, row.getSheet().getSheetName());
+    static List<String> getRowValues(Row row){
+        List<String> list = new ArrayList<>();
+        int lastCellNum = row.getLastCellNum();
+        for(int i=0; i<lastCellNum; i++){
+            list.add(getCellValue(row, i));
         }
-        return StringUtils.prepareValueForXML(cellValue);
+        return list;
+    }
+
+    /**
+     * get value of a row based on an index
+     * @param rowValues the values of the row
+     * @param i         the index
+     * @return string value, empty if the row has no value at the index
+     */
+    public static String getCellValue(List<String> rowValues, int i){
+        return i<rowValues.size() ? rowValues.get(i) : "";
     }
 
 
@@ -74,7 +83,10 @@ public class ExcelUtils {
         // retrieve the cell
         Cell cell = row.getCell(i, Row.CREATE_NULL_AS_BLANK);
         // convert the cell type to string to prevent lots of annoying cell type issues
-        cell.setCellType(Cell.CELL_TYPE_STRING);
+        // cells which already are strings are left alone, as the conversion breaks inline strings
+        if(cell.getCellType()!=Cell.CELL_TYPE_STRING) {
+            cell.setCellType(Cell.CELL_TYPE_STRING);
+        }
         // return the value
         return cell.getStringCellValue();
     }
@@ -87,6 +99,16 @@ public class ExcelUtils {
         return new XSSFWorkbook();
     }
 
+    /**
+     * create a new workbook
+     * @param streaming whether rows should be flushed to disk while writing, which keeps the memory use constant for
+     *                  large workbooks. Rows that were flushed can no longer be accessed
+     * @return the workbook
+     */
+    public static Workbook createXLSXWorkbook(boolean streaming){
+        return streaming ? new SXSSFWorkbook(streamingRowWindow) : createXLSXWorkbook();
+    }
+
     /**
      * write a workbook to file
      * @param workbook the workbook to write
@@ -98,6 +120,11 @@ public class ExcelUtils {
             fileOut.close();
         } catch (IOException e) {
             logger.error("Problem creating {}. The file has NOT been created.", fileName);
+        } finally {
+            // a streaming workbook keeps its flushed rows in temporary files
+            if(workbook instanceof SXSSFWorkbook){
+                ((SXSSFWorkbook) workbook).dispose();
+            }
         }
     }
 
@@ -0,0 +1,17 @@
+package utils;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the rows of a worksheet, one at a time, as read by a {@link WorkbookReader}
+ */
+public interface RowHandler {
+    /**
+     * handle a single row of a sheet
+     * @param rowNum    zero-based number of the row in the sheet
+     * @param rowValues string values of the row's cells; cells which do not exist are empty strings
+     * @throws IOException if the handler itself has to read from the workbook and this fails
+     */
+    void handleRow(int rowNum, List<String> rowValues) throws IOException;
+}
@@ -0,0 +1,288 @@
+package utils;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and counters of a run: the time of each phase, the time and size of each workbook read, the time and the
+ * number of new, same and changed concepts and valuesets of each version, the size of each section of the output
+ * and the peak heap use. They are logged as a table at the end of the run and written to a json report, which shows
+ * where the time of a slow run was spent.
+ * Workbooks are read concurrently, so all methods are thread safe
+ */
+public class RunStatistics {
+    private static final Logger logger = LogManager.getLogger(RunStatistics.class.getName());
+
+    private long startTime = System.nanoTime();
+    private Map<String, Long> phaseMap = new LinkedHashMap<>();
+    private List<WorkbookStatistics> workbookList = new ArrayList<>();
+    private List<VersionStatistics> versionList = new ArrayList<>();
+    private Map<String, Long> sectionMap = new LinkedHashMap<>();
+
+    /**
+     * measure the peak heap use from now on. The peaks are kept by the JVM for all statistics at once, and a run may
+     * create more than one (e.g. to verify its output), so this is called once when the program starts a run
+     */
+    public static void resetPeakHeap(){
+        for(MemoryPoolMXBean memoryPoolMXBean:getHeapPools()){
+            memoryPoolMXBean.resetPeakUsage();
+        }
+    }
+
+    /**
+     * add the time of a phase of the run; the time of a phase which occurs more than once is added up
+     * @param phase        name of the phase, e.g. read
+     * @param startTime    value of System.nanoTime() at the start of the phase
+     */
+    public synchronized void addPhase(String phase, long startTime){
+        phaseMap.merge(phase, System.nanoTime()-startTime, Long::sum);
+    }
+
+    /**
+     * add a workbook which was read
+     * @param fileName     name of the workbook
+     * @param cached       whether the codebook was read from the codebook cache instead of from the workbook
+     * @param startTime    value of System.nanoTime() at the start of reading
+     * @param sheets       number of sheets read
+     * @param rows         number of rows read
+     */
+    public synchronized void addWorkbook(String fileName, boolean cached, long startTime, int sheets, int rows){
+        workbookList.add(new WorkbookStatistics(fileName, cached, System.nanoTime()-startTime, sheets, rows));
+    }
+
+    /**
+     * start counting the transformation of a version
+     * @param version    the version
+     * @return the statistics of the version, to which the concepts are added
+     */
+    public synchronized VersionStatistics startVersion(int version){
+        VersionStatistics versionStatistics = new VersionStatistics(version);
+        versionList.add(versionStatistics);
+        return versionStatistics;
+    }
+
+    /**
+     * add the number of bytes written for a section of the output; the bytes of a section which is written more
+     * than once are added up
+     * @param section    name of the section, e.g. datasets
+     * @param bytes      number of bytes
+     */
+    public synchronized void addSection(String section, long bytes){
+        sectionMap.merge(section, bytes, Long::sum);
+    }
+
+    /**
+     * log the statistics as a table
+     */
+    public synchronized void logSummary(){
+        StringBuilder stringBuilder = new StringBuilder("Run statistics (total ").append(toMillis(System.nanoTime()-startTime)).append(" ms, peak heap ").append(getPeakHeap()/(1024*1024)).append(" MB)\n");
+        stringBuilder.append(String.format("  %-24s %10s%n", "phase", "time (ms)"));
+        for(Map.Entry<String, Long> entry:phaseMap.entrySet()){
+            stringBuilder.append(String.format("  %-24s %10d%n", entry.getKey(), toMillis(entry.getValue())));
+        }
+        if(!workbookList.isEmpty()){
+            stringBuilder.append(String.format("  %-24s %10s %7s %8s%n", "workbook", "time (ms)", "sheets", "rows"));
+            for(WorkbookStatistics workbookStatistics:workbookList){
+                stringBuilder.append(String.format("  %-24s %10d %7d %8d%s%n", workbookStatistics.fileName, toMillis(workbookStatistics.time),
+                        workbookStatistics.sheets, workbookStatistics.rows, workbookStatistics.cached?" cached":""));
+            }
+        }
+        if(!versionList.isEmpty()){
+            stringBuilder.append(String.format("  %-24s %10s %-26s %s%n", "version", "time (ms)", "concepts new/same/changed", "valuesets new/same/changed"));
+            for(VersionStatistics versionStatistics:versionList){
+                stringBuilder.append(String.format("  %-24d %10d %-26s %s%n", versionStatistics.version, toMillis(versionStatistics.time),
+                        versionStatistics.concepts.getNew()+"/"+versionStatistics.concepts.getSame()+"/"+versionStatistics.concepts.getChanged(),
+                        versionStatistics.valueSets.getNew()+"/"+versionStatistics.valueSets.getSame()+"/"+versionStatistics.valueSets.getChanged()));
+            }
+        }
+        if(!sectionMap.isEmpty()){
+            stringBuilder.append(String.format("  %-24s %10s%n", "output section", "bytes"));
+            for(Map.Entry<String, Long> entry:sectionMap.entrySet()){
+                stringBuilder.append(String.format("  %-24s %10d%n", entry.getKey(), entry.getValue()));
+            }
+        }
+        logger.log(Level.INFO, stringBuilder.toString().trim());
+    }
+
+    /**
+     * write the statistics as json
+     * @param file    the report file
+     * @throws IOException
+     */
+    public synchronized void writeReport(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.append("{\n");
+            writer.append("  \"totalMillis\": ").append(String.valueOf(toMillis(System.nanoTime()-startTime))).append(",\n");
+            writer.append("  \"peakHeapBytes\": ").append(String.valueOf(getPeakHeap())).append(",\n");
+
+            writer.append("  \"phases\": {");
+            String separator = "\n";
+            for(Map.Entry<String, Long> entry:phaseMap.entrySet()){
+                writer.append(separator).append("    ").append(toJson(entry.getKey())).append(": {\"millis\": ").append(String.valueOf(toMillis(entry.getValue()))).append("}");
+                separator = ",\n";
+            }
+            writer.append(phaseMap.isEmpty()?"},\n":"\n  },\n");
+
+            writer.append("  \"workbooks\": [");
+            separator = "\n";
+            for(WorkbookStatistics workbookStatistics:workbookList){
+                writer.append(separator).append("    {\"file\": ").append(toJson(workbookStatistics.fileName))
+                        .append(", \"cached\": ").append(String.valueOf(workbookStatistics.cached))
+                        .append(", \"millis\": ").append(String.valueOf(toMillis(workbookStatistics.time)))
+                        .append(", \"sheets\": ").append(String.valueOf(workbookStatistics.sheets))
+                        .append(", \"rows\": ").append(String.valueOf(workbookStatistics.rows)).append("}");
+                separator = ",\n";
+            }
+            writer.append(workbookList.isEmpty()?"],\n":"\n  ],\n");
+
+            writer.append("  \"versions\": [");
+            separator = "\n";
+            for(VersionStatistics versionStatistics:versionList){
+                writer.append(separator).append("    {\"version\": ").append(String.valueOf(versionStatistics.version))
+                        .append(", \"millis\": ").append(String.valueOf(toMillis(versionStatistics.time)))
+                        .append(", \"concepts\": ").append(versionStatistics.concepts.toJson())
+                        .append(", \"valueSets\": ").append(versionStatistics.valueSets.toJson()).append("}");
+                separator = ",\n";
+            }
+            writer.append(versionList.isEmpty()?"],\n":"\n  ],\n");
+
+            writer.append("  \"outputSections\": {");
+            separator = "\n";
+            for(Map.Entry<String, Long> entry:sectionMap.entrySet()){
+                writer.append(separator).append("    ").append(toJson(entry.getKey())).append(": {\"bytes\": ").append(String.valueOf(entry.getValue())).append("}");
+                separator = ",\n";
+            }
+            writer.append(sectionMap.isEmpty()?"}\n":"\n  }\n");
+            writer.append("}\n");
+        }
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools(){
+        List<MemoryPoolMXBean> heapPoolList = new ArrayList<>();
+        for(MemoryPoolMXBean memoryPoolMXBean:ManagementFactory.getMemoryPoolMXBeans()){
+            if(memoryPoolMXBean.getType()==MemoryType.HEAP && memoryPoolMXBean.isValid()){
+                heapPoolList.add(memoryPoolMXBean);
+            }
+        }
+        return heapPoolList;
+    }
+
+    // the pools reach their peaks at different moments, so the sum is an upper bound of the peak heap use
+    private static long getPeakHeap(){
+        long peakHeap = 0;
+        for(MemoryPoolMXBean memoryPoolMXBean:getHeapPools()){
+            peakHeap += memoryPoolMXBean.getPeakUsage().getUsed();
+        }
+        return peakHeap;
+    }
+
+    private static long toMillis(long nanos){
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static String toJson(String value){
+        StringBuilder stringBuilder = new StringBuilder("\"");
+        for(char c:value.toCharArray()){
+            if(c=='"' || c=='\\'){
+                stringBuilder.append('\\').append(c);
+            }
+            else if(c<0x20){
+                stringBuilder.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                stringBuilder.append(c);
+            }
+        }
+        return stringBuilder.append('"').toString();
+    }
+
+    private static class WorkbookStatistics {
+        private String fileName;
+        private boolean cached;
+        private long time;
+        private int sheets;
+        private int rows;
+
+        WorkbookStatistics(String fileName, boolean cached, long time, int sheets, int rows){
+            this.fileName = fileName;
+            this.cached = cached;
+            this.time = time;
+            this.sheets = sheets;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * the statistics of the transformation of a version
+     */
+    public static class VersionStatistics {
+        private int version;
+        private long startTime = System.nanoTime();
+        private long time;
+        private StatusCounts concepts = new StatusCounts();
+        private StatusCounts valueSets = new StatusCounts();
+
+        private VersionStatistics(int version){
+            this.version = version;
+        }
+
+        /**
+         * count a concept
+         * @param status    status of the concept compared to the previous version (NEW, SAME or CHANGED)
+         */
+        public void addConcept(String status){
+            concepts.add(status);
+        }
+
+        /**
+         * count the valueset of a concept
+         * @param status    status of the valueset compared to the previous version (NEW, SAME or CHANGED)
+         */
+        public void addValueSet(String status){
+            valueSets.add(status);
+        }
+
+        /**
+         * stop the time of the version
+         */
+        public void finish(){
+            time = System.nanoTime()-startTime;
+        }
+    }
+
+    private static class StatusCounts {
+        private Map<String, Integer> countMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        void add(String status){
+            countMap.merge(status, 1, Integer::sum);
+        }
+
+        int getNew(){
+            return countMap.getOrDefault("NEW", 0);
+        }
+
+        int getSame(){
+            return countMap.getOrDefault("SAME", 0);
+        }
+
+        int getChanged(){
+            return countMap.getOrDefault("CHANGED", 0);
+        }
+
+        String toJson(){
+            return "{\"new\": "+getNew()+", \"same\": "+getSame()+", \"changed\": "+getChanged()+"}";
+        }
+    }
+}
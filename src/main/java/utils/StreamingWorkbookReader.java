@@ -0,0 +1,201 @@
+package utils;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Workbook reader which streams the sheet xml of an xlsx file using SAX. Only the shared strings table is kept in
+ * memory; rows are handed to the RowHandler as they are parsed, without creating XSSFSheet or XSSFRow objects.
+ *
+ * Cell values are converted to strings the same way the usermodel does when a cell's type is set to string, so
+ * both readers deliver the same values
+ */
+class StreamingWorkbookReader implements WorkbookReader {
+    private OPCPackage opcPackage;
+    private ReadOnlySharedStringsTable sharedStringsTable;
+    // sheet lookup is case insensitive, like Workbook.getSheet
+    private Map<String, PackagePart> sheetPartMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    StreamingWorkbookReader(Path path) throws IOException, InvalidFormatException {
+        opcPackage = OPCPackage.open(path.toFile(), PackageAccess.READ);
+        try {
+            XSSFReader xssfReader = new XSSFReader(opcPackage);
+            sharedStringsTable = new ReadOnlySharedStringsTable(opcPackage);
+            XSSFReader.SheetIterator sheetIterator = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+            while(sheetIterator.hasNext()){
+                // the iterator opens each sheet; we only need its part, so close the stream right away
+                sheetIterator.next().close();
+                if(!sheetPartMap.containsKey(sheetIterator.getSheetName())) {
+                    sheetPartMap.put(sheetIterator.getSheetName(), sheetIterator.getSheetPart());
+                }
+            }
+        } catch (OpenXML4JException | SAXException | IOException e){
+            opcPackage.revert();
+            throw new IOException("Problem opening "+path.getFileName()+": "+e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean readSheet(String sheetName, RowHandler rowHandler) throws IOException {
+        PackagePart sheetPart = sheetPartMap.get(sheetName);
+        if(sheetPart==null){
+            return false;
+        }
+
+        try (InputStream inputStream = sheetPart.getInputStream()) {
+            XMLReader xmlReader = SAXHelper.newXMLReader();
+            xmlReader.setContentHandler(new SheetHandler(rowHandler));
+            xmlReader.parse(new InputSource(inputStream));
+        } catch (SAXException e){
+            // exceptions thrown by the row handler are wrapped to get them through the parser
+            if(e.getException() instanceof IOException){
+                throw (IOException) e.getException();
+            }
+            throw new IOException("Problem reading sheet "+sheetName+": "+e.getMessage(), e);
+        } catch (ParserConfigurationException e){
+            throw new IOException("Problem creating the xml parser: "+e.getMessage(), e);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the package is opened read only, so revert instead of close, as close would attempt to save it
+        opcPackage.revert();
+    }
+
+    /**
+     * SAX handler for the sheet xml, e.g.
+     * <row r="2"><c r="A2" t="s"><v>4</v></c><c r="B2"><v>1.5</v></c></row>
+     */
+    private class SheetHandler extends DefaultHandler {
+        private RowHandler rowHandler;
+
+        private int rowNum = -1;
+        private List<String> rowValues;
+
+        private int columnIndex;
+        private String cellType;
+        private boolean inValue = false;
+        private StringBuilder value = new StringBuilder();
+
+        SheetHandler(RowHandler rowHandler){
+            this.rowHandler = rowHandler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            String name = getName(localName, qName);
+            switch (name) {
+                case "row":
+                    String rowRef = attributes.getValue("r");
+                    rowNum = rowRef != null ? Integer.parseInt(rowRef) - 1 : rowNum + 1;
+                    rowValues = new ArrayList<>();
+                    break;
+                case "c":
+                    String cellRef = attributes.getValue("r");
+                    columnIndex = cellRef != null ? getColumnIndex(cellRef) : rowValues.size();
+                    cellType = attributes.getValue("t");
+                    value.setLength(0);
+                    break;
+                case "v":
+                case "t":
+                    // t holds the text of inline strings, possibly split over multiple runs
+                    inValue = true;
+                    break;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            String name = getName(localName, qName);
+            switch (name) {
+                case "v":
+                case "t":
+                    inValue = false;
+                    break;
+                case "c":
+                    while (rowValues.size() <= columnIndex) {
+                        rowValues.add("");
+                    }
+                    rowValues.set(columnIndex, getCellValue());
+                    break;
+                case "row":
+                    try {
+                        rowHandler.handleRow(rowNum, rowValues);
+                    } catch (IOException e) {
+                        throw new SAXException(e);
+                    }
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if(inValue){
+                value.append(ch, start, length);
+            }
+        }
+
+        /**
+         * convert the collected value to a string, following the usermodel's conversion
+         * @return the string value of the cell
+         */
+        private String getCellValue(){
+            String cellValue = value.toString();
+            if(cellType==null){
+                return cellValue;
+            }
+            switch (cellType) {
+                case "s":
+                    return cellValue.isEmpty() ? "" : sharedStringsTable.getEntryAt(Integer.parseInt(cellValue.trim()));
+                case "b":
+                    return cellValue.isEmpty() ? "" : (cellValue.equals("1") ? "TRUE" : "FALSE");
+                default:
+                    // numeric, error, inline and formula string values are used as they are
+                    return cellValue;
+            }
+        }
+
+        private String getName(String localName, String qName){
+            return localName.isEmpty() ? qName : localName;
+        }
+
+        /**
+         * retrieve the zero-based column index of a cell reference, e.g. AB12 --> 27
+         * @param cellRef the cell reference
+         * @return the column index
+         */
+        private int getColumnIndex(String cellRef){
+            int column = 0;
+            for(int i=0; i<cellRef.length(); i++){
+                char c = cellRef.charAt(i);
+                if(c<'A' || c>'Z'){
+                    break;
+                }
+                column = column * 26 + (c - 'A' + 1);
+            }
+            return column - 1;
+        }
+    }
+}
@@ -4,22 +4,119 @@ package utils;
  * String stuff
  */
 class StringUtils {
+    // replacement for characters which interfere with xml syntax, indexed by character
+    private static final String[] xmlReplacementTable = new String[128];
+    // ascii characters which are whitespace according to the regex \s
+    private static final boolean[] asciiWhitespaceTable = new boolean[128];
+    // buffers are reused, unless they have grown beyond this size
+    private static final int maxRetainedBufferSize = 1 << 16;
+    private static final ThreadLocal<StringBuilder> buffer = ThreadLocal.withInitial(StringBuilder::new);
+
+    static{
+        xmlReplacementTable['&'] = "&amp;";
+        xmlReplacementTable['<'] = "&lt;";
+        xmlReplacementTable['>'] = "&gt;";
+        xmlReplacementTable['\''] = "&apos;";
+        xmlReplacementTable['"'] = "&quot;";
+
+        asciiWhitespaceTable[' '] = true;
+        asciiWhitespaceTable['\t'] = true;
+        asciiWhitespaceTable['\n'] = true;
+        asciiWhitespaceTable['\u000B'] = true;
+        asciiWhitespaceTable['\f'] = true;
+        asciiWhitespaceTable['\r'] = true;
+    }
+
     /**
      * does some string replacements to ensure the value does not interfere with XML syntax
+     * replaces all whitespace characters by a normal space (this due to an a0 character appearing), collapses
+     * runs of whitespace and trims the result. All of this is done in a single scan over the characters; if nothing
+     * has to be replaced the value itself is returned
      * @param value the value to check
      * @return an acceptable xml value
      */
     static String prepareValueForXML(String value){
-        value = value.replaceAll("&", "&amp;");
-        value = value.replaceAll("<", "&lt;");
-        value = value.replaceAll(">", "&gt;");
-        value = value.replaceAll("'", "&apos;");
-        value = value.replaceAll("\"", "&quot;");
-        value = value.replaceAll("≥", "&gt;=");
-        value = value.replaceAll("≤", "&lt;=");
-        // replace all whitespace characters with a normal space
-        // this due to an a0 character appearing
-        value = value.replaceAll("[\\p{Zs}\\s]+", " ");
-        return value.trim();
+        int length = value.length();
+        int i = 0;
+        // find the first character that has to be changed
+        while(i<length){
+            char c = value.charAt(i);
+            if(getReplacement(c)!=null || (isWhitespace(c) && (c!=' ' || (i+1<length && isWhitespace(value.charAt(i+1)))))){
+                break;
+            }
+            i++;
+        }
+        if(i==length){
+            return value.trim();
+        }
+
+        StringBuilder stringBuilder = getBuffer();
+        stringBuilder.append(value, 0, i);
+        boolean inWhitespace = false;
+        for(; i<length; i++){
+            char c = value.charAt(i);
+            if(isWhitespace(c)){
+                // a run of whitespace becomes a single space
+                if(!inWhitespace){
+                    stringBuilder.append(' ');
+                    inWhitespace = true;
+                }
+                continue;
+            }
+            inWhitespace = false;
+            String replacement = getReplacement(c);
+            if(replacement!=null){
+                stringBuilder.append(replacement);
+            }
+            else {
+                stringBuilder.append(c);
+            }
+        }
+
+        // trim the same way String.trim does
+        int start = 0;
+        int end = stringBuilder.length();
+        while(start<end && stringBuilder.charAt(start)<=' '){
+            start++;
+        }
+        while(end>start && stringBuilder.charAt(end-1)<=' '){
+            end--;
+        }
+        return stringBuilder.substring(start, end);
+    }
+
+    private static String getReplacement(char c){
+        if(c<128){
+            return xmlReplacementTable[c];
+        }
+        if(c=='≥'){
+            return "&gt;=";
+        }
+        if(c=='≤'){
+            return "&lt;=";
+        }
+        return null;
+    }
+
+    /**
+     * whitespace as matched by the regex [\p{Zs}\s]
+     * @param c the character
+     * @return true/false
+     */
+    private static boolean isWhitespace(char c){
+        if(c<128){
+            return asciiWhitespaceTable[c];
+        }
+        return Character.getType(c)==Character.SPACE_SEPARATOR;
+    }
+
+    private static StringBuilder getBuffer(){
+        StringBuilder stringBuilder = buffer.get();
+        if(stringBuilder.capacity()>maxRetainedBufferSize){
+            stringBuilder = new StringBuilder();
+            buffer.set(stringBuilder);
+        }
+        stringBuilder.setLength(0);
+        return stringBuilder;
     }
 }
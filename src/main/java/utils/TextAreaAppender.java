@@ -19,8 +19,11 @@
 
 package utils;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.scene.control.TextArea;
+import javafx.util.Duration;
 import org.apache.logging.log4j.core.Filter;
 import org.apache.logging.log4j.core.Layout;
 import org.apache.logging.log4j.core.LogEvent;
@@ -31,7 +34,11 @@ import org.apache.logging.log4j.core.config.plugins.PluginElement;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
 import org.apache.logging.log4j.core.layout.PatternLayout;
 
-import java.io.Serializable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * TextAreaAppender, log4j. Uses the log4j2.xml for its parameters
@@ -39,6 +46,11 @@ import java.io.Serializable;
  * elementType: Name of the corresponding category of elements this plugin belongs under. In our case
  * the appender value means indicates an Appender plugin, which is located in the Appender tag in the xml
  * printObject: set to true for appender plugin
+ *
+ * Messages are not passed to the JavaFX Application Thread one by one. They are collected in a bounded buffer, which
+ * is drained a few times per second, appending all pending messages to the TextArea at once. The TextArea only keeps
+ * the last maxLines lines, so the cost of updating it does not grow with the number of messages. If a spillFile
+ * is provided, all messages are written to that file as well.
  */
 @Plugin(
     category = "Core",
@@ -49,8 +61,29 @@ import java.io.Serializable;
 public class TextAreaAppender extends AbstractAppender {
     private static TextArea textArea;
 
-    private TextAreaAppender(String name, Filter filter, Layout<? extends Serializable> layout) {
+    // maximum number of messages waiting to be added to the TextArea; the oldest are dropped when it is full
+    private final int bufferSize;
+    // maximum number of lines kept in the TextArea
+    private final int maxLines;
+    // time between two updates of the TextArea
+    private final int refreshMillis;
+
+    private final Deque<String> buffer = new ArrayDeque<>();
+    private int droppedMessages = 0;
+    private final AtomicBoolean timelineStarted = new AtomicBoolean(false);
+    private Timeline timeline;
+    // number of lines in the TextArea, as far as we know; only used on the JavaFX Application Thread
+    private int textAreaLines = 0;
+
+    private final String spillFile;
+    private Writer spillWriter;
+
+    private TextAreaAppender(String name, Filter filter, Layout<? extends Serializable> layout, int bufferSize, int maxLines, int refreshMillis, String spillFile) {
         super(name, filter, layout);
+        this.bufferSize = bufferSize;
+        this.maxLines = maxLines;
+        this.refreshMillis = refreshMillis;
+        this.spillFile = spillFile;
     }
 
     /**
@@ -63,12 +96,20 @@ public class TextAreaAppender extends AbstractAppender {
      * @param name   Name of appender
      * @param layout Layout of appender
      * @param filter Filter for appender
+     * @param bufferSize maximum number of messages waiting to be shown
+     * @param maxLines maximum number of lines kept in the TextArea
+     * @param refreshMillis time in milliseconds between two updates of the TextArea
+     * @param spillFile optional file to which all messages are written
      * @return The newly created TextAreaAppender
      */
     @PluginFactory
     public static TextAreaAppender createAppender(@PluginAttribute("name") String name,
                                                   @PluginElement("Layout") Layout<? extends Serializable> layout,
-                                                  @PluginElement("Filter") final Filter filter) {
+                                                  @PluginElement("Filter") final Filter filter,
+                                                  @PluginAttribute(value = "bufferSize", defaultInt = 10000) int bufferSize,
+                                                  @PluginAttribute(value = "maxLines", defaultInt = 5000) int maxLines,
+                                                  @PluginAttribute(value = "refreshMillis", defaultInt = 100) int refreshMillis,
+                                                  @PluginAttribute("spillFile") String spillFile) {
         if (name == null) {
             LOGGER.error("No name provided for TextAreaAppender");
             return null;
@@ -76,7 +117,7 @@ public class TextAreaAppender extends AbstractAppender {
         if (layout == null) {
             layout = PatternLayout.createDefaultLayout();
         }
-        return new TextAreaAppender(name, filter, layout);
+        return new TextAreaAppender(name, filter, layout, Math.max(1, bufferSize), Math.max(1, maxLines), Math.max(10, refreshMillis), spillFile);
     }
 
     /**
@@ -89,7 +130,7 @@ public class TextAreaAppender extends AbstractAppender {
     }
 
     /**
-     * Appender receives a LogEvent and appends it to the textArea
+     * Appender receives a LogEvent and adds it to the buffer, which is drained onto the textArea
      *
      * @param event Log event
      */
@@ -98,15 +139,143 @@ public class TextAreaAppender extends AbstractAppender {
         // format the message and transform it into a String
         final String message = new String(getLayout().toByteArray(event));
 
-        // append log text to TextArea, run on the JavaFX Application Thread
-        Platform.runLater(() -> {
+        writeToSpillFile(message);
+        synchronized (buffer) {
+            if (buffer.size() >= bufferSize) {
+                buffer.removeFirst();
+                droppedMessages++;
+            }
+            buffer.addLast(message);
+        }
+        startTimeline();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        Timeline timeline = this.timeline;
+        if (timeline != null) {
+            Platform.runLater(timeline::stop);
+        }
+        closeSpillFile();
+    }
+
+    /**
+     * start the timeline which drains the buffer, on the JavaFX Application Thread
+     */
+    private void startTimeline() {
+        if (timelineStarted.compareAndSet(false, true)) {
             try {
-                if (textArea != null) {
-                    textArea.appendText(message);
-                }
-            } catch (Exception e) {
-                System.err.println("Exception occurred while appending to the text area: " + e.getMessage());
+                Platform.runLater(() -> {
+                    timeline = new Timeline(new KeyFrame(Duration.millis(refreshMillis), event -> drainBuffer()));
+                    timeline.setCycleCount(Timeline.INDEFINITE);
+                    timeline.play();
+                });
+            } catch (IllegalStateException e) {
+                // the JavaFX toolkit is not running (yet); try again with the next message
+                timelineStarted.set(false);
             }
-        });
+        }
+    }
+
+    /**
+     * append all the pending messages to the textArea at once, after which the oldest lines are removed
+     */
+    private void drainBuffer() {
+        if (textArea == null) {
+            return;
+        }
+
+        StringBuilder stringBuilder = new StringBuilder();
+        synchronized (buffer) {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            if (droppedMessages > 0) {
+                stringBuilder.append("... ").append(droppedMessages).append(" messages skipped").append(spillFile != null ? ", see " + spillFile : "").append("\n");
+                droppedMessages = 0;
+            }
+            for (String message : buffer) {
+                stringBuilder.append(message);
+            }
+            buffer.clear();
+        }
+        flushSpillFile();
+
+        try {
+            textArea.appendText(stringBuilder.toString());
+            textAreaLines += countLines(stringBuilder);
+            // trim once the TextArea has grown a bit beyond its maximum, so we don't have to trim on every update
+            if (textAreaLines > maxLines + maxLines / 10) {
+                trimTextArea();
+            }
+        } catch (Exception e) {
+            System.err.println("Exception occurred while appending to the text area: " + e.getMessage());
+        }
+    }
+
+    /**
+     * remove the oldest lines from the textArea, keeping the last maxLines lines
+     */
+    private void trimTextArea() {
+        String text = textArea.getText();
+        int lines = 0;
+        int position = text.length();
+        // the last character usually is the newline of the last message
+        int index = text.endsWith("\n") ? text.length() - 1 : text.length();
+        while (lines < maxLines && (index = text.lastIndexOf('\n', index - 1)) >= 0) {
+            lines++;
+            position = index + 1;
+        }
+        if (index >= 0 && position > 0) {
+            textArea.deleteText(0, position);
+        }
+        // the text may have been replaced by someone else, so count what is left
+        textAreaLines = lines;
+    }
+
+    private static int countLines(CharSequence text) {
+        int lines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private synchronized void writeToSpillFile(String message) {
+        if (spillFile == null) {
+            return;
+        }
+        try {
+            if (spillWriter == null) {
+                spillWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile, true), StandardCharsets.UTF_8));
+            }
+            spillWriter.write(message);
+        } catch (IOException e) {
+            System.err.println("Exception occurred while writing to " + spillFile + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void flushSpillFile() {
+        try {
+            if (spillWriter != null) {
+                spillWriter.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Exception occurred while writing to " + spillFile + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void closeSpillFile() {
+        try {
+            if (spillWriter != null) {
+                spillWriter.close();
+                spillWriter = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Exception occurred while closing " + spillFile + ": " + e.getMessage());
+        }
     }
 }
\ No newline at end of file
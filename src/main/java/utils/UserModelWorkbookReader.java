@@ -0,0 +1,44 @@
+package utils;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Workbook reader which loads the complete workbook into POI's usermodel
+ */
+class UserModelWorkbookReader implements WorkbookReader {
+    private Workbook workbook;
+
+    UserModelWorkbookReader(Path path) throws IOException, InvalidFormatException {
+        // open the package read only, otherwise closing the workbook writes it back to the codebook file
+        workbook = WorkbookFactory.create(path.toFile(), null, true);
+    }
+
+    @Override
+    public boolean readSheet(String sheetName, RowHandler rowHandler) throws IOException {
+        Sheet sheet = workbook.getSheet(sheetName);
+        if(sheet==null){
+            return false;
+        }
+
+        int lastRowNr = sheet.getLastRowNum();
+        for(int i=0; i<=lastRowNr; i++){
+            Row row = sheet.getRow(i);
+            if(row!=null){
+                rowHandler.handleRow(i, ExcelUtils.getRowValues(row));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        workbook.close();
+    }
+}
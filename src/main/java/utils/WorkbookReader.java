@@ -0,0 +1,38 @@
+package utils;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Read access to the sheets of an Excel workbook. Rows are handed to a {@link RowHandler} as lists of strings, which
+ * allows the codebook parsing to be independent of how the workbook is actually read
+ */
+public interface WorkbookReader extends Closeable {
+
+    /**
+     * open a workbook
+     * @param path      the workbook file
+     * @param streaming true to stream the sheet xml using SAX, false to load the complete workbook using the usermodel
+     * @return a reader for the workbook
+     * @throws IOException
+     * @throws InvalidFormatException
+     */
+    static WorkbookReader open(Path path, boolean streaming) throws IOException, InvalidFormatException {
+        if(streaming){
+            return new StreamingWorkbookReader(path);
+        }
+        return new UserModelWorkbookReader(path);
+    }
+
+    /**
+     * read all rows of a sheet. Rows which do not exist in the sheet are skipped. Sheet names are case insensitive
+     * @param sheetName  name of the sheet
+     * @param rowHandler handler which receives the rows
+     * @return false if the sheet does not exist, true otherwise
+     * @throws IOException
+     */
+    boolean readSheet(String sheetName, RowHandler rowHandler) throws IOException;
+}